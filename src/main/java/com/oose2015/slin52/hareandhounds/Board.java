@@ -0,0 +1,531 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.*;
+import org.json.*;
+
+/**
+ * The board of hare and hounds, stored as a bitboard. The 11 vertices are
+ * numbered in the order of {@link #COORDS}; the hounds are kept as a bit mask
+ * over these indices and the hare as a single index. A whole board packs into
+ * one position integer: bits 0-10 hold the hound mask and bits 11-14 the hare
+ * index.
+ * 
+ * @author Sen Lin
+ * 
+ */
+class Board {
+	/**
+	 * Number of vertices on the board.
+	 */
+	static final int VERTEX_COUNT = 11;
+
+	/**
+	 * Number of distinct position integers; every position is smaller.
+	 */
+	static final int POSITION_COUNT = 1 << 15;
+
+	/**
+	 * Coordinates of all vertices, indexed by vertex index.
+	 */
+	private static final int[][] COORDS = { { 1, 0 }, { 2, 0 }, { 3, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 }, { 3, 1 },
+			{ 4, 1 }, { 1, 2 }, { 2, 2 }, { 3, 2 } };
+
+	/**
+	 * Vertex index of every (x, y) on the 5x3 grid, -1 if there is no vertex.
+	 */
+	private static final int[] INDEX_BY_XY = new int[15];
+
+	/**
+	 * Bit mask of the neighbors of every vertex.
+	 */
+	private static final int[] NEIGHBORS = new int[VERTEX_COUNT];
+
+	/**
+	 * Bit mask of the vertices whose X coordinate is not smaller than that of
+	 * every vertex; a hound cannot move out of it, and the hare escapes when
+	 * all hounds are in it.
+	 */
+	private static final int[] NOT_BEHIND = new int[VERTEX_COUNT];
+
+	/**
+	 * Bit mask of the vertices a hound can step to from every vertex: the
+	 * neighbors that are not behind it.
+	 */
+	private static final int[] HOUND_STEPS = new int[VERTEX_COUNT];
+
+	/**
+	 * Index of the vertex mirrored at the middle row, (x, y) to (x, 2 - y).
+	 */
+	private static final int[] MIRROR = new int[VERTEX_COUNT];
+
+	static {
+		Arrays.fill(INDEX_BY_XY, -1);
+		for (int v = 0; v < VERTEX_COUNT; v++) {
+			INDEX_BY_XY[COORDS[v][0] * 3 + COORDS[v][1]] = v;
+		}
+		Set<String> isolatedVertices = new HashSet<String>(Arrays.asList("11_22_31_20".split("_")));
+		for (int v = 0; v < VERTEX_COUNT; v++) {
+			for (int u = 0; u < VERTEX_COUNT; u++) {
+				int distance = Math.max(Math.abs(COORDS[v][0] - COORDS[u][0]), Math.abs(COORDS[v][1] - COORDS[u][1]));
+				boolean isolated = isolatedVertices.contains("" + COORDS[v][0] + COORDS[v][1])
+						&& isolatedVertices.contains("" + COORDS[u][0] + COORDS[u][1]);
+				if (distance == 1 && !isolated) {
+					NEIGHBORS[v] |= 1 << u;
+				}
+				if (COORDS[u][0] >= COORDS[v][0]) {
+					NOT_BEHIND[v] |= 1 << u;
+				}
+			}
+			MIRROR[v] = INDEX_BY_XY[COORDS[v][0] * 3 + 2 - COORDS[v][1]];
+		}
+		for (int v = 0; v < VERTEX_COUNT; v++) {
+			HOUND_STEPS[v] = NEIGHBORS[v] & NOT_BEHIND[v];
+		}
+	}
+
+	private int hounds;
+	private int hare;
+
+	public Board() {
+		// Initialize hare and hounds
+		this.hounds = (1 << indexOf(0, 1)) | (1 << indexOf(1, 0)) | (1 << indexOf(1, 2));
+		this.hare = indexOf(4, 1);
+	}
+
+	/**
+	 * Vertex index of given coordinates.
+	 * 
+	 * @param x
+	 *            X coordinate of the vertex
+	 * @param y
+	 *            Y coordinate of the vertex
+	 * @return index of the vertex, or -1 if there is no vertex at (x, y)
+	 */
+	static int indexOf(int x, int y) {
+		if (x < 0 || x > 4 || y < 0 || y > 2) {
+			return -1;
+		}
+		return INDEX_BY_XY[x * 3 + y];
+	}
+
+	/**
+	 * @return X coordinate of the vertex with given index
+	 */
+	static int xOf(int vertex) {
+		return COORDS[vertex][0];
+	}
+
+	/**
+	 * @return Y coordinate of the vertex with given index
+	 */
+	static int yOf(int vertex) {
+		return COORDS[vertex][1];
+	}
+
+	/**
+	 * Check if two vertices given by index are adjacent (connected and
+	 * distance one)
+	 */
+	static boolean isAdjacent(int from, int to) {
+		return (NEIGHBORS[from] & (1 << to)) != 0;
+	}
+
+	/**
+	 * Check if a move from one vertex to another goes backward, i.e. to a
+	 * smaller X coordinate. Hounds cannot go backward.
+	 */
+	static boolean isBackward(int from, int to) {
+		return (NOT_BEHIND[from] & (1 << to)) == 0;
+	}
+
+	/**
+	 * Pack a hound mask and a hare index into a position integer.
+	 */
+	static int positionOf(int hounds, int hare) {
+		return hounds | (hare << VERTEX_COUNT);
+	}
+
+	/**
+	 * @return hound mask of a position integer
+	 */
+	static int houndsOf(int position) {
+		return position & ((1 << VERTEX_COUNT) - 1);
+	}
+
+	/**
+	 * @return hare index of a position integer
+	 */
+	static int hareOf(int position) {
+		return position >>> VERTEX_COUNT;
+	}
+
+	/**
+	 * Mirror a position at the middle row. The rules are symmetric, so a
+	 * position and its mirror image have the same outcome.
+	 */
+	static int mirror(int position) {
+		int hounds = houndsOf(position);
+		int mirrored = 0;
+		while (hounds != 0) {
+			mirrored |= 1 << MIRROR[Integer.numberOfTrailingZeros(hounds)];
+			hounds &= hounds - 1;
+		}
+		return positionOf(mirrored, MIRROR[hareOf(position)]);
+	}
+
+	/**
+	 * Find the vertices the piece on a vertex can legally move to.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @param from
+	 *            index of the vertex of the piece to move
+	 * @return bit mask of the destinations, 0 if the vertex is empty
+	 */
+	static int destinations(int position, int from) {
+		int hounds = houndsOf(position);
+		int hare = hareOf(position);
+		int occupied = hounds | (1 << hare);
+		if (from == hare) {
+			return NEIGHBORS[from] & ~occupied;
+		} else if ((hounds & (1 << from)) != 0) {
+			return HOUND_STEPS[from] & ~occupied;
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Describe all legal moves of a side in a position.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @param hare
+	 *            true for the moves of the hare, false for those of the hounds
+	 * @return JSON array of the moves, each with fromX, fromY, toX and toY
+	 */
+	static JSONArray describeMoves(int position, boolean hare) {
+		JSONArray moves = new JSONArray();
+		int pieces = hare ? 1 << hareOf(position) : houndsOf(position);
+		while (pieces != 0) {
+			int from = Integer.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+			int destinations = destinations(position, from);
+			while (destinations != 0) {
+				int to = Integer.numberOfTrailingZeros(destinations);
+				destinations &= destinations - 1;
+				JSONObject move = new JSONObject();
+				move.put("fromX", xOf(from));
+				move.put("fromY", yOf(from));
+				move.put("toX", xOf(to));
+				move.put("toY", yOf(to));
+				moves.put(move);
+			}
+		}
+		return moves;
+	}
+
+	/**
+	 * Check if a side has any legal move in a position.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @param hare
+	 *            true for the hare, false for the hounds
+	 */
+	static boolean hasMove(int position, boolean hare) {
+		int pieces = hare ? 1 << hareOf(position) : houndsOf(position);
+		while (pieces != 0) {
+			if (destinations(position, Integer.numberOfTrailingZeros(pieces)) != 0) {
+				return true;
+			}
+			pieces &= pieces - 1;
+		}
+		return false;
+	}
+
+	/**
+	 * Move the piece on one vertex of a position to another vertex. The
+	 * caller is responsible for checking the move is legal.
+	 * 
+	 * @return the position after the move
+	 */
+	static int move(int position, int from, int to) {
+		if (from == hareOf(position)) {
+			return positionOf(houndsOf(position), to);
+		} else {
+			return position ^ (1 << from) ^ (1 << to);
+		}
+	}
+
+	/**
+	 * @return the board packed into a position integer
+	 */
+	int getPosition() {
+		return positionOf(this.hounds, this.hare);
+	}
+
+	/**
+	 * Retrieve board positions from a position integer.
+	 * 
+	 * @param position
+	 *            the board packed by {@link #getPosition()}
+	 */
+	void setPosition(int position) {
+		this.hounds = houndsOf(position);
+		this.hare = hareOf(position);
+	}
+
+	/**
+	 * @return bit mask of the vertices occupied by hounds
+	 */
+	int getHounds() {
+		return this.hounds;
+	}
+
+	/**
+	 * @return index of the vertex occupied by the hare, -1 if there is none
+	 */
+	int getHare() {
+		return this.hare;
+	}
+
+	/**
+	 * Get pieceType of a vertex given by index.
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @return "HARE", "HOUND" or "NULL"
+	 */
+	String getPieceType(int vertex) {
+		if (vertex == this.hare) {
+			return "HARE";
+		} else if ((this.hounds & (1 << vertex)) != 0) {
+			return "HOUND";
+		} else {
+			return "NULL";
+		}
+	}
+
+	/**
+	 * Move the piece on one vertex to another vertex. The caller is
+	 * responsible for checking the move is legal.
+	 * 
+	 * @param from
+	 *            index of the origin vertex
+	 * @param to
+	 *            index of the destination vertex
+	 */
+	void move(int from, int to) {
+		if (from == this.hare) {
+			this.hare = to;
+		} else {
+			this.hounds ^= (1 << from) | (1 << to);
+		}
+	}
+
+	/**
+	 * Fetch a list of pieces with given pieceType
+	 * 
+	 * @param pieceType
+	 *            could be "HARE" or "HOUND"
+	 * @return a list of vertices of given pieceType
+	 */
+	public List<Vertex> getVerticesByPieceType(String pieceType) {
+		List<Vertex> pieces = new ArrayList<Vertex>();
+		for (int v = 0; v < VERTEX_COUNT; v++) {
+			if (this.getPieceType(v).equals(pieceType)) {
+				pieces.add(new Vertex(v));
+			}
+		}
+		return pieces;
+	}
+
+	/**
+	 * Check if two given vertices are adjacent (connected and distance one)
+	 * 
+	 * @param fromX
+	 *            X coordinate of the first vertex.
+	 * @param fromY
+	 *            Y coordinate of the first vertex.
+	 * @param toX
+	 *            X coordinate of the second vertex.
+	 * @param toY
+	 *            Y coordinate of the second vertex.
+	 * @return true if adjacent, false otherwise.
+	 * 
+	 */
+	public boolean isAdjacent(int fromX, int fromY, int toX, int toY) {
+		int from = indexOf(fromX, fromY);
+		int to = indexOf(toX, toY);
+		return from >= 0 && to >= 0 && isAdjacent(from, to);
+	}
+
+	/**
+	 * Use a string to represent status of all vertices. Status of a vertex is
+	 * "HARE" if a hare stands on it, "HOUND" if a hound stands on it, and
+	 * "NULL" if nothing stands on it.
+	 * 
+	 * @return a string of concatenated vertex statuses delimited by "_".
+	 */
+	public String getStatus() {
+		StringBuilder status = new StringBuilder(64);
+		for (int v = 0; v < VERTEX_COUNT; v++) {
+			if (v > 0) {
+				status.append('_');
+			}
+			status.append(this.getPieceType(v));
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Set pieceType of a vertex given by coordinates. There is only one hare
+	 * on the board, so setting "HARE" moves it.
+	 * 
+	 * @param x
+	 *            X coordinate of the vertex to set
+	 * @param y
+	 *            Y coordinate of the vertex to set
+	 * @param pieceType
+	 *            the new pieceType
+	 */
+	public void setPieceTypeByXY(int x, int y, String pieceType) {
+		int vertex = indexOf(x, y);
+		if (pieceType.equals("HARE") || pieceType.equals("HOUND") || pieceType.equals("NULL")) {
+			if (vertex < 0) {
+				return;
+			}
+			this.hounds &= ~(1 << vertex);
+			if (this.hare == vertex) {
+				this.hare = -1;
+			}
+			if (pieceType.equals("HARE")) {
+				this.hare = vertex;
+			} else if (pieceType.equals("HOUND")) {
+				this.hounds |= 1 << vertex;
+			}
+		} else {
+			System.err.println("Wrong pieceType: " + pieceType);
+		}
+	}
+
+	/**
+	 * Get pieceType of vertex given by coordinates.
+	 * 
+	 * @param x
+	 *            X coordinate of the vertex to get pieceType
+	 * @param y
+	 *            Y coordinate of the vertex to get pieceType
+	 * @return pieceType of the vertex, null if there is no vertex at (x, y)
+	 */
+	public String getPieceTypeByXY(int x, int y) {
+		int vertex = indexOf(x, y);
+		return vertex < 0 ? null : this.getPieceType(vertex);
+	}
+
+	/**
+	 * Retrieve board positions from a status string.
+	 * 
+	 * @param statusWords
+	 *            a string of all vertex statuses delimited by "_"
+	 */
+	public void setStatus(String statusWords) {
+		this.hounds = 0;
+		this.hare = -1;
+		int start = 0;
+		for (int v = 0; v < VERTEX_COUNT && start < statusWords.length(); v++) {
+			int end = statusWords.indexOf('_', start);
+			if (end < 0) {
+				end = statusWords.length();
+			}
+			if (end - start == 4 && statusWords.startsWith("HARE", start)) {
+				this.hare = v;
+			} else if (end - start == 5 && statusWords.startsWith("HOUND", start)) {
+				this.hounds |= 1 << v;
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Check if the hare has escaped or been trapped by hounds
+	 * 
+	 * @return "WIN_HARE_BY_ESCAPE" if escaped, "WIN_HOUND" if trapped, and null
+	 *         if otherwise.
+	 */
+	public String checkHareState() {
+		if (this.hare < 0) {
+			return null;
+		}
+		return checkHareState(this.getPosition());
+	}
+
+	/**
+	 * Check if the hare has escaped or been trapped by hounds in a position.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @return "WIN_HARE_BY_ESCAPE" if escaped, "WIN_HOUND" if trapped, and null
+	 *         if otherwise.
+	 */
+	static String checkHareState(int position) {
+		int hounds = houndsOf(position);
+		int hare = hareOf(position);
+		// check if the hare escaped
+		if ((hounds & ~NOT_BEHIND[hare]) == 0) {
+			return "WIN_HARE_BY_ESCAPE";
+		}
+		// check if the hare is trapped
+		if ((NEIGHBORS[hare] & ~hounds) == 0) {
+			return "WIN_HOUND";
+		}
+		return null;
+	}
+
+	/**
+	 * Override the default toString method.
+	 * 
+	 * @return a JSON string of four pieces.
+	 */
+	@Override
+	public String toString() {
+		JSONArray list = new JSONArray();
+		for (int v = 0; v < VERTEX_COUNT; v++) {
+			if (!this.getPieceType(v).equals("NULL")) {
+				list.put(new Vertex(v).toJson());
+			}
+		}
+		return list.toString();
+	}
+
+	/**
+	 * A vertex of the board together with the piece standing on it; only used
+	 * to describe the board.
+	 */
+	private class Vertex {
+		public final int x;
+		public final int y;
+		private final String pieceType;
+
+		public Vertex(int vertex) {
+			this.x = xOf(vertex);
+			this.y = yOf(vertex);
+			this.pieceType = getPieceType(vertex);
+		}
+
+		public JSONObject toJson() {
+			JSONObject obj = new JSONObject();
+			obj.put("x", this.x);
+			obj.put("y", this.y);
+			obj.put("pieceType", this.pieceType);
+			return obj;
+		}
+	}
+
+}
@@ -9,10 +9,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteDataSource;
 
+import spark.Spark;
+
 import javax.sql.DataSource;
 
 import static spark.Spark.*;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -22,17 +25,61 @@ public class Bootstrap {
 	public static final String IP_ADDRESS = "localhost";
 	public static final int PORT = 8080;
 
+	/**
+	 * The solved game, written by {@link TablebaseSolver} when it is missing.
+	 */
+	public static final String TABLEBASE_FILE = "hareandhounds.tb";
+
+	/**
+	 * System property choosing where games are kept: "sqlite" (the default)
+	 * for game.db, "log" for the append-only log in game-log, or "memory".
+	 */
+	public static final String STORE_PROPERTY = "hareandhounds.store";
+
+	private static GameService gameService;
+	private static ComputerPlayer computerPlayer;
+
 	public static void main(String[] args) throws Exception {
 
 		ipAddress(IP_ADDRESS);
 		port(PORT);
 		staticFileLocation("/public");
 
+		Tablebase tablebase;
+		try {
+			tablebase = Tablebase.open(Paths.get(TABLEBASE_FILE));
+		} catch (IOException ex) {
+			System.err.println("Failed to load the tablebase. Aborting");
+			return;
+		}
+
+		GameStore store;
 		try {
-			GameService model = new GameService();
-			new GameController(model);
-		} catch (GameService.GameServiceException ex) {
-			System.err.println("Failed to create a GameService instance. Aborting");
+			store = GameStore.open(System.getProperty(STORE_PROPERTY, GameStore.SQLITE), Paths.get("."));
+		} catch (GameStore.StoreException ex) {
+			System.err.println("Failed to open the game store: " + ex.getMessage() + ". Aborting");
+			return;
+		}
+
+		Metrics metrics = new Metrics();
+		GameService model = new GameService(store, metrics);
+		computerPlayer = new ComputerPlayer(Runtime.getRuntime().availableProcessors());
+		new GameController(model, tablebase, computerPlayer, metrics);
+		gameService = model;
+	}
+
+	/**
+	 * Stop the server and close the database.
+	 */
+	public static void stop() {
+		Spark.stop();
+		if (computerPlayer != null) {
+			computerPlayer.stop();
+			computerPlayer = null;
+		}
+		if (gameService != null) {
+			gameService.close();
+			gameService = null;
 		}
 	}
 }
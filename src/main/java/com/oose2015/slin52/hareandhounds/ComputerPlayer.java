@@ -0,0 +1,312 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The server as a player. Moves are chosen by an iterative-deepening
+ * alpha-beta search within a time budget, on a pool of its own so the
+ * request threads never wait for a search. All games share one
+ * transposition table, indexed directly by position key, since the same
+ * positions come up again and again across games.
+ * 
+ * A computer player is recognised by its player id, which also records its
+ * strength; see {@link #playerIdOf(int)}.
+ */
+class ComputerPlayer {
+
+	static final int MIN_STRENGTH = 1;
+	static final int MAX_STRENGTH = 10;
+
+	/**
+	 * Time a single move may take at most, whatever the strength.
+	 */
+	static final long MOVE_BUDGET_MILLIS = 250;
+
+	private static final String PLAYER_ID_PREFIX = "computer";
+
+	private static final int WIN_SCORE = 10000;
+	private static final int INFINITY = WIN_SCORE + 1;
+
+	/**
+	 * Score of repeating a position in the search, for the hare: the hare can
+	 * go round in the cycle until it wins by stalling.
+	 */
+	private static final int STALL_SCORE = WIN_SCORE / 2;
+
+	private static final int EXACT = 1;
+	private static final int LOWER_BOUND = 2;
+	private static final int UPPER_BOUND = 3;
+
+	/**
+	 * Entries of the transposition table: the score in the upper 32 bits,
+	 * then the bound type, the depth and the best move in the lowest byte.
+	 */
+	private static final AtomicLongArray TABLE = new AtomicLongArray(2 * Board.POSITION_COUNT);
+
+	private final ExecutorService executor;
+
+	ComputerPlayer(int threads) {
+		this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "computer-player");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * @return player id of a computer player of given strength
+	 */
+	static String playerIdOf(int strength) {
+		return PLAYER_ID_PREFIX + strength;
+	}
+
+	/**
+	 * @return strength of the player with given id, 0 if it is no computer
+	 *         player
+	 */
+	static int strengthOf(String playerId) {
+		if (playerId == null || !playerId.startsWith(PLAYER_ID_PREFIX)) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(playerId.substring(PLAYER_ID_PREFIX.length()));
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Choose a move on the pool of the computer player.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @param hareToMove
+	 *            whether the hare is to move
+	 * @param strength
+	 *            strength of the player; the search goes two plies deeper for
+	 *            every step
+	 * @return the move, see {@link #fromOf(int)} and {@link #toOf(int)}
+	 */
+	CompletableFuture<Integer> chooseMove(int position, boolean hareToMove, int strength) {
+		return CompletableFuture.supplyAsync(() -> new Search(MOVE_BUDGET_MILLIS).bestMove(position, hareToMove,
+				2 * strength), this.executor);
+	}
+
+	/**
+	 * Stop the pool; searches still waiting are dropped.
+	 */
+	void stop() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * @return index of the origin vertex of a move
+	 */
+	static int fromOf(int move) {
+		return move >>> 4;
+	}
+
+	/**
+	 * @return index of the destination vertex of a move
+	 */
+	static int toOf(int move) {
+		return move & 0xF;
+	}
+
+	/**
+	 * One search for one move. Nothing is allocated while searching.
+	 */
+	static class Search {
+		private static final int MAX_PLY = 64;
+
+		private final long deadline;
+		private final int[] path = new int[MAX_PLY + 1];
+		private boolean timeUp;
+		private int nodes;
+		private int rootMove = -1;
+		/**
+		 * Lowest ply of the path whose position a repetition below the node
+		 * being searched has returned to. A score decided by a repetition
+		 * further up than the node depends on how the node was reached, so it
+		 * is not stored in the table.
+		 */
+		private int repeatedPly = Integer.MAX_VALUE;
+
+		Search(long budgetMillis) {
+			this.deadline = System.nanoTime() + budgetMillis * 1000000;
+		}
+
+		/**
+		 * Search deeper and deeper until the depth limit or the deadline.
+		 * 
+		 * @return the best move of the deepest completed search, -1 if the
+		 *         side to move has no move
+		 */
+		int bestMove(int position, boolean hareToMove, int maxDepth) {
+			for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+				int score = this.search(position, hareToMove, depth, -INFINITY, INFINITY, 0);
+				if (this.timeUp || Math.abs(score) >= WIN_SCORE - MAX_PLY) {
+					// Out of time, or the outcome is decided and searching
+					// deeper changes nothing
+					break;
+				}
+			}
+			return this.rootMove;
+		}
+
+		/**
+		 * Negamax alpha-beta search.
+		 * 
+		 * @return score for the side to move
+		 */
+		private int search(int position, boolean hareToMove, int depth, int alpha, int beta, int ply) {
+			String hareState = Board.checkHareState(position);
+			if (hareState != null) {
+				boolean hareWon = hareState.equals("WIN_HARE_BY_ESCAPE");
+				return hareWon == hareToMove ? WIN_SCORE - ply : ply - WIN_SCORE;
+			}
+			int key = Game.positionKey(position, hareToMove);
+			for (int earlier = ply - 2; earlier >= 0; earlier -= 2) {
+				if (this.path[earlier] == key) {
+					this.repeatedPly = Math.min(this.repeatedPly, earlier);
+					return hareToMove ? STALL_SCORE : -STALL_SCORE;
+				}
+			}
+			if (depth == 0 || ply == MAX_PLY) {
+				return evaluate(position, hareToMove);
+			}
+			// The first iteration always completes, so there is a move
+			if (this.rootMove >= 0 && (++this.nodes & 0x3FF) == 0 && System.nanoTime() > this.deadline) {
+				this.timeUp = true;
+			}
+			if (this.timeUp) {
+				return 0;
+			}
+
+			long entry = TABLE.get(key);
+			int bestMove = 0;
+			if (entry != 0) {
+				bestMove = (int) (entry & 0xFF);
+				int entryDepth = (int) (entry >>> 8 & 0xFF);
+				int bound = (int) (entry >>> 16 & 0x3);
+				int score = fromTable((int) (entry >> 32), ply);
+				if (entryDepth >= depth && ply > 0
+						&& (bound == EXACT || bound == LOWER_BOUND && score >= beta || bound == UPPER_BOUND && score <= alpha)) {
+					return score;
+				}
+			}
+
+			this.path[ply] = key;
+			int outerRepeatedPly = this.repeatedPly;
+			this.repeatedPly = Integer.MAX_VALUE;
+			int originalAlpha = alpha;
+			int bestScore = -INFINITY;
+			int moveCount = 0;
+			// The move of the table first, then all others
+			if (bestMove != 0 && (Board.destinations(position, fromOf(bestMove)) & (1 << toOf(bestMove))) != 0) {
+				moveCount++;
+				bestScore = -this.search(Board.move(position, fromOf(bestMove), toOf(bestMove)), !hareToMove,
+						depth - 1, -beta, -alpha, ply + 1);
+				alpha = Math.max(alpha, bestScore);
+			} else {
+				bestMove = 0;
+			}
+			int pieces = hareToMove ? 1 << Board.hareOf(position) : Board.houndsOf(position);
+			while (pieces != 0 && alpha < beta) {
+				int from = Integer.numberOfTrailingZeros(pieces);
+				pieces &= pieces - 1;
+				int destinations = Board.destinations(position, from);
+				while (destinations != 0 && alpha < beta) {
+					int to = Integer.numberOfTrailingZeros(destinations);
+					destinations &= destinations - 1;
+					int move = from << 4 | to;
+					if (move == bestMove) {
+						continue;
+					}
+					moveCount++;
+					int score = -this.search(Board.move(position, from, to), !hareToMove, depth - 1, -beta, -alpha,
+							ply + 1);
+					if (score > bestScore) {
+						bestScore = score;
+						bestMove = move;
+					}
+					alpha = Math.max(alpha, score);
+				}
+			}
+			boolean fromHistory = this.repeatedPly < ply;
+			this.repeatedPly = Math.min(outerRepeatedPly, this.repeatedPly);
+			if (moveCount == 0) {
+				// Not reached: a side has a move until the hare escapes or is
+				// trapped, see Game.checkGameOver
+				return ply - WIN_SCORE;
+			}
+			if (!this.timeUp) {
+				if (ply == 0) {
+					this.rootMove = bestMove;
+				}
+				if (fromHistory) {
+					return bestScore;
+				}
+				int bound = bestScore <= originalAlpha ? UPPER_BOUND : bestScore >= beta ? LOWER_BOUND : EXACT;
+				TABLE.set(key, (long) toTable(bestScore, ply) << 32 | bound << 16 | depth << 8 | bestMove);
+			}
+			return bestScore;
+		}
+	}
+
+	/**
+	 * Scores of won positions count the plies from the root of the search;
+	 * in the table they count from the position itself.
+	 */
+	private static int toTable(int score, int ply) {
+		if (score >= WIN_SCORE - Search.MAX_PLY) {
+			return score + ply;
+		} else if (score <= Search.MAX_PLY - WIN_SCORE) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score >= WIN_SCORE - Search.MAX_PLY) {
+			return score - ply;
+		} else if (score <= Search.MAX_PLY - WIN_SCORE) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	/**
+	 * Judge a position the search does not look beyond. The hare is better
+	 * off the fewer hounds are still to its left and the more room it has;
+	 * the hounds are better off the further they have advanced.
+	 * 
+	 * @return score for the side to move
+	 */
+	static int evaluate(int position, boolean hareToMove) {
+		int hare = Board.hareOf(position);
+		int hareX = Board.xOf(hare);
+		int behind = 0;
+		int advance = 0;
+		int hounds = Board.houndsOf(position);
+		while (hounds != 0) {
+			int hound = Integer.numberOfTrailingZeros(hounds);
+			hounds &= hounds - 1;
+			if (Board.xOf(hound) < hareX) {
+				behind++;
+			}
+			advance += Board.xOf(hound);
+		}
+		int mobility = Integer.bitCount(Board.destinations(position, hare));
+		int score = 10 * mobility - 40 * behind - 5 * advance + 60;
+		return hareToMove ? score : -score;
+	}
+}
@@ -0,0 +1,349 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * A fixed-size pool of SQLite connections, opened when the pool is created.
+ * Closing a connection handed out by the pool returns it to the pool, and
+ * every pooled connection keeps the statements it prepared, so the same SQL
+ * is only compiled once per connection; the least recently used statement
+ * is closed once a connection has more than {@link #MAX_STATEMENTS}. A
+ * connection that cannot be put
+ * back into a clean state is closed and opened again on its next borrow, so
+ * the pool never shrinks.
+ */
+class ConnectionPool implements DataSource {
+
+	private static final long BORROW_TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Statements kept per connection; batch inserts alone prepare a
+	 * statement for every number of rows they insert.
+	 */
+	static final int MAX_STATEMENTS = 64;
+
+	private final String url;
+	private final SQLiteConfig config;
+	private final List<PooledConnection> all = new ArrayList<PooledConnection>();
+	private final BlockingQueue<PooledConnection> idle;
+	private volatile boolean closed;
+	private PrintWriter logWriter;
+
+	/**
+	 * Open all connections of the pool.
+	 * 
+	 * @param url
+	 *            JDBC url of the database
+	 * @param config
+	 *            pragmas applied to every connection
+	 * @param size
+	 *            number of connections
+	 */
+	ConnectionPool(String url, SQLiteConfig config, int size) throws SQLException {
+		this.url = url;
+		this.config = config;
+		this.idle = new ArrayBlockingQueue<PooledConnection>(size);
+		for (int i = 0; i < size; i++) {
+			PooledConnection conn = new PooledConnection(config.createConnection(url));
+			this.all.add(conn);
+			this.idle.add(conn);
+		}
+	}
+
+	/**
+	 * Borrow a connection; closing it returns it to the pool.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		PooledConnection conn;
+		try {
+			conn = this.idle.poll(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", ex);
+		}
+		if (conn == null) {
+			throw new SQLException("No connection available after " + BORROW_TIMEOUT_MILLIS + " ms");
+		}
+		if (conn.physical == null) {
+			if (this.closed) {
+				this.idle.add(conn);
+				throw new SQLException("The pool has been closed");
+			}
+			try {
+				conn.reopen();
+			} catch (SQLException ex) {
+				this.idle.add(conn);
+				throw ex;
+			}
+		}
+		return conn.borrow();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return this.getConnection();
+	}
+
+	/**
+	 * Close all connections of the pool, including borrowed ones.
+	 */
+	void close() {
+		this.closed = true;
+		for (PooledConnection conn : this.all) {
+			conn.discard();
+		}
+	}
+
+	/**
+	 * A physical connection together with the statements it has prepared.
+	 */
+	private class PooledConnection {
+		// Null after the connection has been discarded
+		private volatile Connection physical;
+		private final StatementCache statements = new StatementCache();
+
+		PooledConnection(Connection physical) {
+			this.physical = physical;
+		}
+
+		/**
+		 * @return a handle on this connection that goes back to the pool when
+		 *         closed
+		 */
+		Connection borrow() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new Handle(this.physical));
+		}
+
+		/**
+		 * Open a new physical connection in place of a discarded one.
+		 */
+		void reopen() throws SQLException {
+			this.statements.clear();
+			this.physical = config.createConnection(url);
+		}
+
+		/**
+		 * Close the physical connection, whatever state it is in.
+		 */
+		void discard() {
+			Connection physical = this.physical;
+			this.physical = null;
+			if (physical != null) {
+				try {
+					physical.close();
+				} catch (SQLException ex) {
+					// Nothing more can be done with the connection
+				}
+			}
+		}
+
+		/**
+		 * Find the statement prepared for the given SQL, or prepare it.
+		 */
+		PreparedStatement prepare(Method method, Object[] args) throws Throwable {
+			String key = args.length == 1 ? (String) args[0] : args[0] + "\u0000" + args[1];
+			PreparedStatement cached = this.statements.get(key);
+			if (cached == null || StatementHandle.of(cached).statement.isClosed()) {
+				PreparedStatement statement = (PreparedStatement) invoke(this.physical, method, args);
+				cached = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] { PreparedStatement.class }, new StatementHandle(statement));
+				this.statements.put(key, cached);
+			}
+			return cached;
+		}
+
+		/**
+		 * Put the connection back into a clean state and return it to the
+		 * pool. If that fails, e.g. because the database is busy, the
+		 * connection is discarded and replaced on its next borrow.
+		 */
+		void release(Connection physical) throws SQLException {
+			try {
+				if (!physical.getAutoCommit()) {
+					physical.rollback();
+					physical.setAutoCommit(true);
+				}
+			} catch (SQLException | RuntimeException ex) {
+				this.discard();
+				throw ex;
+			} finally {
+				idle.add(this);
+			}
+		}
+
+		/**
+		 * Dispatches the calls made on a borrowed connection.
+		 */
+		private class Handle implements InvocationHandler {
+			private final Connection physical;
+			private boolean closed = false;
+
+			Handle(Connection physical) {
+				this.physical = physical;
+			}
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "close":
+					if (!this.closed) {
+						this.closed = true;
+						release(this.physical);
+					}
+					return null;
+				case "isClosed":
+					return this.closed || this.physical.isClosed();
+				case "prepareStatement":
+					if (args.length <= 2 && !this.closed) {
+						return prepare(method, args);
+					}
+					return ConnectionPool.invoke(this.physical, method, args);
+				default:
+					if (this.closed) {
+						throw new SQLException("Connection has been returned to the pool");
+					}
+					return ConnectionPool.invoke(this.physical, method, args);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Statements of one connection by SQL, least recently used first; the
+	 * least recently used one is closed once there are more than
+	 * {@link #MAX_STATEMENTS}.
+	 */
+	private static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+		private static final long serialVersionUID = 1L;
+
+		StatementCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() <= MAX_STATEMENTS) {
+				return false;
+			}
+			try {
+				StatementHandle.of(eldest.getValue()).statement.close();
+			} catch (SQLException ex) {
+				// The statement is dropped all the same
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Dispatches the calls made on a cached statement; closing it only resets
+	 * it for the next use.
+	 */
+	private static class StatementHandle implements InvocationHandler {
+		private final PreparedStatement statement;
+		private ResultSet resultSet;
+
+		StatementHandle(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		/**
+		 * @return the handle of a cached statement
+		 */
+		static StatementHandle of(PreparedStatement cached) {
+			return (StatementHandle) Proxy.getInvocationHandler(cached);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				// A result set left open keeps the statement holding its locks
+				if (this.resultSet != null && !this.resultSet.isClosed()) {
+					this.resultSet.close();
+				}
+				this.resultSet = null;
+				this.statement.clearParameters();
+				this.statement.clearBatch();
+				return null;
+			case "isClosed":
+				return false;
+			case "executeQuery":
+				this.resultSet = (ResultSet) ConnectionPool.invoke(this.statement, method, args);
+				return this.resultSet;
+			default:
+				return ConnectionPool.invoke(this.statement, method, args);
+			}
+		}
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return this.logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) {
+		// Connections are opened up front
+	}
+
+	@Override
+	public int getLoginTimeout() {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLException("Not a wrapper");
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return false;
+	}
+}
@@ -6,7 +6,6 @@
 package com.oose2015.slin52.hareandhounds;
 
 import java.util.*;
-import com.google.gson.Gson;
 import org.json.*;
 import java.lang.Math;
 import org.slf4j.Logger;
@@ -21,9 +20,11 @@ import org.slf4j.LoggerFactory;
 public class Game {
 	private final Logger logger = LoggerFactory.getLogger(Game.class);
 	private String state;
-	private String boardStatus;
+	private Board board;
 	private String playerHare;
 	private String playerHound;
+	private int version;
+	private RepetitionCounter repetitions;
 
 	/**
 	 * State of the game; could be one of WAITING_FOR_SECOND_PLAYER, TURN_HARE,
@@ -35,12 +36,20 @@ public class Game {
 		return this.state;
 	}
 
+	/**
+	 * Positions of the four pieces packed into one integer; see {@link Board}
+	 * 
+	 */
+	public int getPosition() {
+		return this.board.getPosition();
+	}
+
 	/**
 	 * A string containing status of all vertices, delimited by "_"
 	 * 
 	 */
 	public String getBoardStatus() {
-		return this.boardStatus;
+		return this.board.getStatus();
 	}
 
 	/**
@@ -59,12 +68,28 @@ public class Game {
 		return this.playerHound;
 	}
 
+	/**
+	 * Version of the game; it increases by one every time the game is saved.
+	 * 
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	public void setState(String state) {
 		this.state = state;
 	}
 
-	public void setBoardStatus(String boardStatus) {
-		this.boardStatus = boardStatus;
+	public void setPosition(int position) {
+		// sql2o instantiates games without running the constructor
+		if (this.board == null) {
+			this.board = new Board();
+		}
+		this.board.setPosition(position);
 	}
 
 	public void setPlayerHare(String playerHare) {
@@ -79,8 +104,58 @@ public class Game {
 		this.state = "null";
 		this.playerHare = "null";
 		this.playerHound = "null";
-		Board board = new Board();
-		this.boardStatus = board.getStatus();
+		this.board = new Board();
+	}
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other
+	 *            the game to copy
+	 */
+	Game(Game other) {
+		this.state = other.state;
+		this.playerHare = other.playerHare;
+		this.playerHound = other.playerHound;
+		this.version = other.version;
+		this.board = new Board();
+		this.board.setPosition(other.getPosition());
+		if (other.repetitions != null) {
+			this.repetitions = new RepetitionCounter(other.repetitions);
+		}
+	}
+
+	/**
+	 * Key of a position together with the side to move; the same position
+	 * repeats only if the same side is to move.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @param hareToMove
+	 *            true if the hare is to move, false if the hounds are
+	 * @return key used to count repetitions
+	 */
+	static int positionKey(int position, boolean hareToMove) {
+		return hareToMove ? position | Board.POSITION_COUNT : position;
+	}
+
+	/**
+	 * @return key of the current position and side to move
+	 */
+	int getPositionKey() {
+		return positionKey(this.getPosition(), this.state.equals("TURN_HARE"));
+	}
+
+	/**
+	 * How many times every position has occurred in this game; null if they
+	 * have not been counted yet.
+	 */
+	RepetitionCounter getRepetitions() {
+		return this.repetitions;
+	}
+
+	void setRepetitions(RepetitionCounter repetitions) {
+		this.repetitions = repetitions;
 	}
 
 	/**
@@ -90,9 +165,34 @@ public class Game {
 	 * @return JSON string of the four pieces.
 	 */
 	public String getBoardDescrition() {
-		Board board = new Board();
-		board.setStatus(this.boardStatus);
-		return board.toString();
+		return this.board.toString();
+	}
+
+	/**
+	 * @return pieceType of the side to move, or null if nobody is to move
+	 */
+	public String getTurn() {
+		switch (this.state) {
+		case "TURN_HARE":
+			return "HARE";
+		case "TURN_HOUND":
+			return "HOUND";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Describe everything a client needs to render the game, read from this
+	 * one instance so the parts always belong together.
+	 * 
+	 * @return JSON string with the state, the side to move, the four pieces
+	 *         and the version of the game.
+	 */
+	public String getSnapshot() {
+		String turn = this.getTurn();
+		return "{\"state\":\"" + this.state + "\",\"turn\":" + (turn == null ? "null" : "\"" + turn + "\"")
+				+ ",\"board\":" + this.getBoardDescrition() + ",\"version\":" + this.version + "}";
 	}
 
 	/**
@@ -112,35 +212,36 @@ public class Game {
 	 *         ILLEGAL_MOVE or SUCCESS
 	 */
 	public String turn(String playerId, int fromX, int fromY, int toX, int toY) {
-		Board board = new Board();
-		board.setStatus(this.boardStatus);
-
 		String pieceTypePlayer = this.getPlayerPieceType(playerId);
 		if (!pieceTypePlayer.equals("HARE") && !pieceTypePlayer.equals("HOUND")) {
 			return "INVALID_PLAYER_ID";
-		} else if (!this.state.equals("TURN_" + pieceTypePlayer)) {
+		} else if (!this.state.equals(pieceTypePlayer.equals("HARE") ? "TURN_HARE" : "TURN_HOUND")) {
 			// This is not the player's turn yet
 			return "INCORRECT_TURN";
 		} else {
-			String pieceTypeFrom = board.getPieceTypeByXY(fromX, fromY);
-			String pieceTypeTo = board.getPieceTypeByXY(toX, toY);
+			int from = Board.indexOf(fromX, fromY);
+			int to = Board.indexOf(toX, toY);
+			if (from < 0 || to < 0) {
+				// there is no vertex at the origin or the destination
+				return "ILLEGAL_MOVE";
+			}
+			String pieceTypeFrom = this.board.getPieceType(from);
+			String pieceTypeTo = this.board.getPieceType(to);
 			if (!pieceTypeFrom.equals(pieceTypePlayer)) {
 				// the player cannot move this piece
 				return "ILLEGAL_MOVE";
 			} else if (!pieceTypeTo.equals("NULL")) {
 				// the destination is already occupied
 				return "ILLEGAL_MOVE";
-			} else if (!board.isAdjacent(fromX, fromY, toX, toY)) {
+			} else if (!Board.isAdjacent(from, to)) {
 				// the move is not adjacent (connect by one and only one edge)
 				return "ILLEGAL_MOVE";
-			} else if (pieceTypeFrom.equals("HOUND") && toX < fromX) {
+			} else if (pieceTypeFrom.equals("HOUND") && Board.isBackward(from, to)) {
 				// HOUND cannot go backward
 				return "ILLEGAL_MOVE";
 			} else {
 				// legal move
-				board.setPieceTypeByXY(fromX, fromY, "NULL");
-				board.setPieceTypeByXY(toX, toY, pieceTypeFrom);
-				this.boardStatus = board.getStatus();
+				this.board.move(from, to);
 				this.checkGameOver();
 				return "SUCCESS";
 			}
@@ -149,13 +250,11 @@ public class Game {
 
 	/**
 	 * Check if the game is over (not considering stalling). If over, change
-	 * game.state
+	 * game.state. Neither side is ever left without a move before the hare
+	 * escapes or is trapped, so a stuck side needs no rule of its own.
 	 */
 	public void checkGameOver() {
-		Board board = new Board();
-		board.setStatus(this.boardStatus);
-
-		String hareState = board.checkHareState();
+		String hareState = this.board.checkHareState();
 		if (hareState != null) {
 			this.state = hareState;
 		} else {
@@ -243,240 +342,25 @@ public class Game {
 	 * @return pieceType of the player with given ID.
 	 */
 	public String getPlayerPieceType(String playerId) {
-		String pieceType = "";
-		if (this.playerHare.equals(playerId)) {
-			pieceType += "HARE";
-		}
-		if (this.playerHound.equals(playerId)) {
-			pieceType += "HOUND";
-		}
-		return pieceType;
-	}
-
-	/**
-	 * Override the default toString method
-	 */
-	@Override
-	public String toString() {
-		return String.format("state: %s, boardStatus: %s, playerHare: %s, playerHound: %s", this.state,
-				this.boardStatus, this.playerHare, this.playerHound);
-	}
-}
-
-class Board {
-	private class Vertex {
-		public final int x;
-		public final int y;
-		private String pieceType = "NULL";
-
-		public Vertex(int x, int y) {
-			this.x = x;
-			this.y = y;
-		}
-
-		public JSONObject toJson() {
-			JSONObject obj = new JSONObject();
-			obj.put("x", this.x);
-			obj.put("y", this.y);
-			obj.put("pieceType", this.pieceType);
-			return obj;
-		}
-	}
-
-	private List<Vertex> allVertices;
-
-	public Board() {
-		this.initAllVertices();
-		// Initialize hare and hounds
-		this.setPieceTypeByXY(0, 1, "HOUND");
-		this.setPieceTypeByXY(1, 0, "HOUND");
-		this.setPieceTypeByXY(1, 2, "HOUND");
-		this.setPieceTypeByXY(4, 1, "HARE");
-	}
-
-	/**
-	 * Initialize all vertices in the board and save them to board.allVertices
-	 */
-	private void initAllVertices() {
-		// Initialize all positions
-		int[][] allCoords = { { 1, 0 }, { 2, 0 }, { 3, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 }, { 3, 1 }, { 4, 1 }, { 1, 2 },
-				{ 2, 2 }, { 3, 2 } };
-		this.allVertices = new ArrayList<Vertex>();
-		for (int[] coord : allCoords) {
-			this.allVertices.add(new Vertex(coord[0], coord[1]));
-		}
-	}
-
-	/**
-	 * Fetch a list of pieces with given pieceType
-	 * 
-	 * @param pieceType
-	 *            could be "HARE" or "HOUND"
-	 * @return a list of vertices of given pieceType
-	 */
-	public List<Vertex> getVerticesByPieceType(String pieceType) {
-		List<Vertex> pieces = new ArrayList<Vertex>();
-		for (Vertex vtx : this.allVertices) {
-			if (vtx.pieceType.equals(pieceType)) {
-				pieces.add(vtx);
-			}
-		}
-		return pieces;
-	}
-
-	/**
-	 * Fetch neighbor vertices of a given vertex. Two vertices are neighbors if
-	 * and only if they are connected and their distance is one.
-	 * 
-	 * @param me
-	 *            the vertex that you want to find neighbors.
-	 * @return a list of vertices that are neighbors of me.
-	 */
-	public List<Vertex> getVertexNeighbors(Vertex me) {
-		List<Vertex> pieces = new ArrayList<Vertex>();
-		for (Vertex vtx : this.allVertices) {
-			if (this.isAdjacent(me.x, me.y, vtx.x, vtx.y)) {
-				pieces.add(vtx);
-			}
-		}
-		return pieces;
-	}
-
-	/**
-	 * Check if two given vertices are adjacent (connected and distance one)
-	 * 
-	 * @param fromX
-	 *            X coordinate of the first vertex.
-	 * @param fromY
-	 *            Y coordinate of the first vertex.
-	 * @param toX
-	 *            X coordinate of the second vertex.
-	 * @param toY
-	 *            Y coordinate of the second vertex.
-	 * @return true if adjacent, false otherwise.
-	 * 
-	 */
-	public boolean isAdjacent(int fromX, int fromY, int toX, int toY) {
-		int distance = Math.max(Math.abs(fromX - toX), Math.abs(fromY - toY));
-		if (distance != 1) {
-			return false;
-		} else {
-			Set<String> isolatedVertices = new HashSet<String>(Arrays.asList("11_22_31_20".split("_")));
-			if (isolatedVertices.contains("" + fromX + fromY) && isolatedVertices.contains("" + toX + toY)) {
-				return false;
-			} else {
-				return true;
-			}
-		}
-	}
-
-	/**
-	 * Use a string to represent status of all vertices. Status of a vertex is
-	 * "HARE" if a hare stands on it, "HOUND" if a hound stands on it, and
-	 * "NULL" if nothing stands on it.
-	 * 
-	 * @return a string of concatenated vertex statuses delimited by "_".
-	 */
-	public String getStatus() {
-		List<String> status = new ArrayList<String>();
-		for (Vertex vtx : this.allVertices) {
-			status.add(vtx.pieceType);
-		}
-		return String.join("_", status);
-	}
-
-	/**
-	 * Set pieceType of a vertex given by coordinates
-	 * 
-	 * @param x
-	 *            X coordinate of the vertex to set
-	 * @param y
-	 *            Y coordinate of the vertex to set
-	 * @param pieceType
-	 *            the new pieceType
-	 */
-	public void setPieceTypeByXY(int x, int y, String pieceType) {
-		if (pieceType.equals("HARE") || pieceType.equals("HOUND") || pieceType.equals("NULL")) {
-			for (Vertex vtx : this.allVertices) {
-				if (vtx.x == x && vtx.y == y) {
-					vtx.pieceType = pieceType;
-				}
-			}
+		boolean isHare = this.playerHare.equals(playerId);
+		boolean isHound = this.playerHound.equals(playerId);
+		if (isHare && isHound) {
+			return "HAREHOUND";
+		} else if (isHare) {
+			return "HARE";
+		} else if (isHound) {
+			return "HOUND";
 		} else {
-			System.err.println("Wrong pieceType: " + pieceType);
-		}
-	}
-
-	/**
-	 * Get pieceType of vertex given by coordinates.
-	 * 
-	 * @param x
-	 *            X coordinate of the vertex to get pieceType
-	 * @param y
-	 *            Y coordinate of the vertex to get pieceType
-	 * @return pieceType of the vertex
-	 */
-	public String getPieceTypeByXY(int x, int y) {
-		for (Vertex vtx : this.allVertices) {
-			if (vtx.x == x && vtx.y == y) {
-				return vtx.pieceType;
-			}
-		}
-		return null;
-	}
-
-	/**
-	 * Retrieve board positions from a status string.
-	 * 
-	 * @param statusWords
-	 *            a string of all vertex statuses delimited by "_"
-	 */
-	public void setStatus(String statusWords) {
-		String[] allStatus = statusWords.split("_");
-		for (int index = 0; index < allStatus.length; index++) {
-			this.allVertices.get(index).pieceType = allStatus[index];
+			return "";
 		}
 	}
 
 	/**
-	 * Check if the hare has escaped or been trapped by hounds
-	 * 
-	 * @return "WIN_HARE_BY_ESCAPE" if escaped, "WIN_HOUND" if trapped, and null
-	 *         if otherwise.
-	 */
-	public String checkHareState() {
-		Vertex hare = this.getVerticesByPieceType("HARE").get(0);
-		// check if the hare escaped
-		List<Vertex> hounds = this.getVerticesByPieceType("HOUND");
-		if (hounds.get(0).x >= hare.x && hounds.get(1).x >= hare.x && hounds.get(2).x >= hare.x) {
-			return "WIN_HARE_BY_ESCAPE";
-		}
-
-		// check if the hare is trapped
-		boolean flag = true;
-		for (Vertex nei : this.getVertexNeighbors(hare)) {
-			flag &= !nei.pieceType.equals("NULL");
-		}
-		if (flag) {
-			return "WIN_HOUND";
-		}
-		return null;
-	}
-
-	/**
-	 * Override the default toString method.
-	 * 
-	 * @return a JSON string of four pieces.
+	 * Override the default toString method
 	 */
 	@Override
 	public String toString() {
-		JSONArray list = new JSONArray();
-		for (Vertex vtx : this.allVertices) {
-			if (!vtx.pieceType.equals("NULL")) {
-				list.put(vtx.toJson());
-			}
-		}
-		return list.toString();
+		return String.format("state: %s, boardStatus: %s, playerHare: %s, playerHound: %s, version: %d",
+				this.state, this.getBoardStatus(), this.playerHare, this.playerHound, this.version);
 	}
-
 }
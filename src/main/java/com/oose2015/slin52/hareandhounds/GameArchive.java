@@ -0,0 +1,178 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.Row;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Finished games moved out of the game database, in a SQLite file of their
+ * own. Every game is one row; its positions are kept as one compressed
+ * blob. Only the archiving thread writes to it.
+ */
+class GameArchive {
+
+	/**
+	 * Name of the archive file, next to the game database.
+	 */
+	static final String ARCHIVE_FILE = "game-archive.db";
+
+	private static final int POOL_SIZE = 2;
+	private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+	private final ConnectionPool dataSource;
+	private final Sql2o db;
+
+	/**
+	 * Open the archive, creating the file and its table if necessary.
+	 * 
+	 * @param path
+	 *            path of the archive file
+	 */
+	GameArchive(Path path) {
+		SQLiteConfig config = new SQLiteConfig();
+		config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+		config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+		config.setBusyTimeout(String.valueOf(BUSY_TIMEOUT_MILLIS));
+		try {
+			this.dataSource = new ConnectionPool("jdbc:sqlite:" + path, config, POOL_SIZE);
+		} catch (SQLException ex) {
+			throw new GameStore.StoreException("Failed to open the game archive", ex);
+		}
+		this.db = new Sql2o(this.dataSource);
+		String sql = "CREATE TABLE IF NOT EXISTS archive (gameId INTEGER PRIMARY KEY, state TEXT, position INTEGER, "
+				+ "playerHare TEXT, playerHound TEXT, version INTEGER, moves INTEGER, positions BLOB)";
+		try (Connection conn = this.db.open()) {
+			conn.createQuery(sql).executeUpdate();
+		} catch (Sql2oException ex) {
+			this.dataSource.close();
+			throw new GameStore.StoreException("Failed to create the game archive", ex);
+		}
+	}
+
+	/**
+	 * Archive finished games in one transaction. A game archived before is
+	 * replaced.
+	 * 
+	 * @param gameIds
+	 *            ids of the games
+	 * @param games
+	 *            the games, in the order of their ids
+	 * @param positions
+	 *            positions of every game, in the order of their ids
+	 */
+	void put(int[] gameIds, Game[] games, int[][] positions) {
+		String sql = "INSERT OR REPLACE INTO archive (gameId, state, position, playerHare, playerHound, version, "
+				+ "moves, positions) VALUES (:gameId, :state, :position, :playerHare, :playerHound, :version, "
+				+ ":moves, :positions)";
+		try (Connection conn = this.db.beginTransaction(java.sql.Connection.TRANSACTION_SERIALIZABLE);
+				Query insert = conn.createQuery(sql)) {
+			for (int i = 0; i < gameIds.length; i++) {
+				insert.addParameter("gameId", gameIds[i]).bind(games[i])
+						.addParameter("moves", positions[i].length).addParameter("positions", compress(positions[i]))
+						.addToBatch();
+			}
+			insert.executeBatch();
+			conn.commit();
+		} catch (Sql2oException ex) {
+			throw new GameStore.StoreException("Failed to archive games", ex);
+		}
+	}
+
+	/**
+	 * @return the archived game with the given id, null if there is none
+	 */
+	Game load(int gameId) {
+		String sql = "SELECT state, position, playerHare, playerHound, version FROM archive WHERE gameId = :gameId";
+		try (Connection conn = this.db.open()) {
+			return conn.createQuery(sql).addParameter("gameId", gameId).executeAndFetchFirst(Game.class);
+		} catch (Sql2oException ex) {
+			throw new GameStore.StoreException("Failed to select the archived game", ex);
+		}
+	}
+
+	/**
+	 * @return the positions of an archived game, none if there is no such
+	 *         game
+	 */
+	int[] positions(int gameId) {
+		String sql = "SELECT moves, positions FROM archive WHERE gameId = :gameId";
+		try (Connection conn = this.db.open()) {
+			for (Row row : conn.createQuery(sql).addParameter("gameId", gameId).executeAndFetchTable().rows()) {
+				return decompress((byte[]) row.getObject("positions"), row.getInteger("moves"));
+			}
+			return new int[0];
+		} catch (Sql2oException ex) {
+			throw new GameStore.StoreException("Failed to select the positions of the archived game", ex);
+		}
+	}
+
+	void close() {
+		this.dataSource.close();
+	}
+
+	/**
+	 * Deflate positions written as two bytes each; a position takes 15 bits.
+	 */
+	static byte[] compress(int[] positions) {
+		ByteBuffer buffer = ByteBuffer.allocate(2 * positions.length);
+		for (int position : positions) {
+			buffer.putShort((short) position);
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(buffer.array());
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.capacity() / 4 + 16);
+		byte[] chunk = new byte[512];
+		while (!deflater.finished()) {
+			out.write(chunk, 0, deflater.deflate(chunk));
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param count
+	 *            number of positions that were compressed
+	 */
+	static int[] decompress(byte[] compressed, int count) {
+		byte[] bytes = new byte[2 * count];
+		Inflater inflater = new Inflater();
+		inflater.setInput(compressed);
+		try {
+			int length = 0;
+			while (length < bytes.length && !inflater.finished()) {
+				int inflated = inflater.inflate(bytes, length, bytes.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new GameStore.StoreException("Truncated positions in the game archive", null);
+				}
+				length += inflated;
+			}
+		} catch (DataFormatException ex) {
+			throw new GameStore.StoreException("Corrupt positions in the game archive", ex);
+		} finally {
+			inflater.end();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int[] positions = new int[count];
+		for (int i = 0; i < count; i++) {
+			positions[i] = buffer.getShort() & 0xffff;
+		}
+		return positions;
+	}
+}
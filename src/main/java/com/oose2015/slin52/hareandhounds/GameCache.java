@@ -0,0 +1,193 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded in-memory cache of games keyed by gameId. The least recently used
+ * game is evicted when the cache is full, and a game that has not been used
+ * for the time to live is dropped on the next lookup. The cache keeps its own
+ * copies of the games it is given, and lends them out to every lookup
+ * without copying; a game from the cache must not be modified, but copied
+ * first with {@link Game#Game(Game)}.
+ * 
+ * The games are spread over segments by id, each with its own lock and its
+ * own order of use, so lookups of games on different segments run in
+ * parallel. A game is never replaced by an older version of itself.
+ */
+class GameCache {
+
+	private static final int SEGMENTS = 64;
+
+	private final long ttlMillis;
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private static class Entry {
+		private final Game game;
+		private long lastAccess;
+
+		Entry(Game game, long lastAccess) {
+			this.game = game;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * Games of one segment, least recently used first.
+	 */
+	private static class Segment extends LinkedHashMap<Integer, Entry> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+			return size() > this.capacity;
+		}
+	}
+
+	/**
+	 * @param capacity
+	 *            maximum number of games to keep
+	 * @param ttlMillis
+	 *            how long an unused game stays in the cache
+	 */
+	GameCache(int capacity, long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+		}
+	}
+
+	private Segment segmentOf(int gameId) {
+		// Game ids are handed out in sequence, so their low bits spread evenly
+		return this.segments[gameId & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Look up a game.
+	 * 
+	 * @param gameId
+	 *            id of the game
+	 * @return the cached game, which must not be modified; null if it is not
+	 *         cached
+	 */
+	Game get(int gameId) {
+		long now = System.currentTimeMillis();
+		Game game = null;
+		Segment segment = this.segmentOf(gameId);
+		synchronized (segment) {
+			Entry entry = segment.get(gameId);
+			if (entry != null && now - entry.lastAccess > this.ttlMillis) {
+				segment.remove(gameId);
+			} else if (entry != null) {
+				entry.lastAccess = now;
+				game = entry.game;
+			}
+		}
+		if (game == null) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+		return game;
+	}
+
+	/**
+	 * Cache a copy of a game, replacing what was cached for its id unless
+	 * that is a newer version.
+	 */
+	void put(int gameId, Game game) {
+		Entry entry = new Entry(new Game(game), System.currentTimeMillis());
+		Segment segment = this.segmentOf(gameId);
+		synchronized (segment) {
+			Entry cached = segment.get(gameId);
+			if (cached == null || cached.game.getVersion() <= game.getVersion()) {
+				segment.put(gameId, entry);
+			}
+		}
+	}
+
+	/**
+	 * Cache a copy of a game read from the store, unless the game is cached
+	 * already; a change may have cached a newer version since it was read.
+	 */
+	void putIfAbsent(int gameId, Game game) {
+		Entry entry = new Entry(new Game(game), System.currentTimeMillis());
+		Segment segment = this.segmentOf(gameId);
+		synchronized (segment) {
+			segment.putIfAbsent(gameId, entry);
+		}
+	}
+
+	/**
+	 * Drop a game from the cache.
+	 */
+	void remove(int gameId) {
+		Segment segment = this.segmentOf(gameId);
+		synchronized (segment) {
+			segment.remove(gameId);
+		}
+	}
+
+	/**
+	 * @return number of lookups that found the game
+	 */
+	long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return number of lookups that did not find the game
+	 */
+	long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Count the cached games that have not expired by state.
+	 * 
+	 * @return number of games for every state that occurs
+	 */
+	Map<String, Integer> countByState() {
+		long now = System.currentTimeMillis();
+		Map<String, Integer> counts = new TreeMap<String, Integer>();
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				for (Entry entry : segment.values()) {
+					if (now - entry.lastAccess <= this.ttlMillis) {
+						counts.merge(entry.game.getState(), 1, Integer::sum);
+					}
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return number of games currently cached
+	 */
+	int size() {
+		int size = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+}
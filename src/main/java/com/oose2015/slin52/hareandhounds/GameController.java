@@ -5,15 +5,21 @@
 
 package com.oose2015.slin52.hareandhounds;
 
-import com.google.gson.Gson;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 import spark.Route;
 
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static spark.Spark.*;
 import org.json.*;
@@ -22,22 +28,126 @@ public class GameController {
 
 	private static final String API_CONTEXT = "hareandhounds/api";
 
+	/**
+	 * Longest time a conditional GET may wait for a game to change, or a
+	 * player for an opponent.
+	 */
+	private static final int MAX_WAIT_SECONDS = 30;
+
+	/**
+	 * Strength of a computer opponent if the client does not choose one.
+	 */
+	private static final int DEFAULT_STRENGTH = 5;
+
+	/**
+	 * Number of locks serializing the changes of games.
+	 */
+	private static final int LOCK_STRIPES = 1024;
+
+	/**
+	 * How often a change is tried before giving up when other servers keep
+	 * changing the game first.
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * Most games one request may create.
+	 */
+	private static final int MAX_BATCH_GAMES = 10000;
+
 	private final GameService gameService;
+	private final Tablebase tablebase;
+	private final ComputerPlayer computerPlayer;
+	private final Metrics metrics;
+	private final GameEvents gameEvents = new GameEvents();
+	private final GameLocks gameLocks = new GameLocks(LOCK_STRIPES);
+
+	/**
+	 * Responses of the moves endpoint by position key; the legal moves only
+	 * depend on the position and the side to move.
+	 */
+	private final AtomicReferenceArray<String> movesByPositionKey = new AtomicReferenceArray<String>(
+			2 * Board.POSITION_COUNT);
+
+	/**
+	 * Encoded responses of the board endpoint by position, the most polled
+	 * endpoint; they are written to the response as they are.
+	 */
+	private final AtomicReferenceArray<byte[]> boardByPosition = new AtomicReferenceArray<byte[]>(
+			Board.POSITION_COUNT);
 
 	private final Logger logger = LoggerFactory.getLogger(GameController.class);
 
-	public GameController(GameService gameService) {
+	public GameController(GameService gameService, Tablebase tablebase, ComputerPlayer computerPlayer,
+			Metrics metrics) {
 		this.gameService = gameService;
+		this.tablebase = tablebase;
+		this.computerPlayer = computerPlayer;
+		this.metrics = metrics;
 		setupEndpoints();
 	}
 
 	private void setupEndpoints() {
 		// Start a game
-		post(API_CONTEXT + "/games", "application/json", (request, response) -> {
+		post(API_CONTEXT + "/games", "application/json", metrics.timed("POST /games", (request, response) -> {
+			String pieceType = null;
+			String opponent = "";
+			int requestedStrength = DEFAULT_STRENGTH;
+			try {
+				RequestParser parser = new RequestParser(request.bodyAsBytes());
+				while (parser.nextField()) {
+					if (parser.fieldIs("pieceType")) {
+						pieceType = parser.stringValue("HOUND", "HARE");
+					} else if (parser.fieldIs("opponent")) {
+						opponent = parser.stringValue("COMPUTER");
+					} else if (parser.fieldIs("strength")) {
+						requestedStrength = parser.intValue();
+					} else {
+						parser.skipValue();
+					}
+				}
+			} catch (RequestParser.MalformedRequestException ex) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_REQUEST\"}";
+			}
+			if (pieceType == null) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_REQUEST\"}";
+			}
 			try {
-				String pieceType = new JSONObject(request.body()).getString("pieceType");
 				JSONObject body = gameService.newGame(pieceType);
 				if (body != null) {
+					if (opponent.equals("COMPUTER")) {
+						// The server joins right away as the other side
+						int strength = Math.min(Math.max(requestedStrength, ComputerPlayer.MIN_STRENGTH),
+								ComputerPlayer.MAX_STRENGTH);
+						int gameId = body.getInt("gameId");
+						boolean joined;
+						try {
+							joined = this.changeGame(gameId, changed -> {
+								Game game = gameService.findGameToChange(gameId);
+								if (game.join(ComputerPlayer.playerIdOf(strength)).equals("null")) {
+									// Another player joined the new game first
+									return false;
+								}
+								gameService.updateGame(game, gameId);
+								this.playComputerTurn(gameId, game);
+								return true;
+							});
+						} catch (GameService.StaleGameException ex) {
+							// The game exists, but the computer could not join it
+							this.logger.warn(String.format("Gave up joining the computer to game %d after "
+									+ "conflicting updates", gameId));
+							response.status(409);
+							return "{\"reason\": \"CONCURRENT_UPDATE\"}";
+						}
+						if (!joined) {
+							this.logger.warn(String.format("The computer could not join game %d, which another "
+									+ "player joined first", gameId));
+							response.status(409);
+							return "{\"reason\": \"CONCURRENT_UPDATE\"}";
+						}
+					}
 					response.status(201);
 					return body.toString();
 				} else {
@@ -50,43 +160,153 @@ public class GameController {
 				response.status(500);
 				return Collections.EMPTY_MAP;
 			}
-		});
+		}));
+
+		// Start many games at once, e.g. a round of a tournament
+		post(API_CONTEXT + "/games/batch", "application/json", metrics.timed("POST /games/batch", (request, response) -> {
+			List<String> pieceTypes = null;
+			try {
+				RequestParser parser = new RequestParser(request.bodyAsBytes());
+				while (parser.nextField()) {
+					if (parser.fieldIs("pieceTypes")) {
+						pieceTypes = new ArrayList<String>();
+						while (parser.nextElement()) {
+							pieceTypes.add(parser.stringValue("HOUND", "HARE"));
+						}
+					} else {
+						parser.skipValue();
+					}
+				}
+			} catch (RequestParser.MalformedRequestException ex) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_REQUEST\"}";
+			}
+			if (pieceTypes == null) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_REQUEST\"}";
+			}
+			if (pieceTypes.isEmpty() || pieceTypes.size() > MAX_BATCH_GAMES) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_BATCH_SIZE\"}";
+			}
+			try {
+				JSONArray games = gameService.newGames(pieceTypes.toArray(new String[pieceTypes.size()]));
+				if (games == null) {
+					// Invalid pieceType
+					response.status(404);
+					return Collections.EMPTY_MAP;
+				}
+				response.status(201);
+				return new JSONObject().put("games", games).toString();
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error("Failed to create new games");
+				response.status(500);
+				return Collections.EMPTY_MAP;
+			}
+		}));
+
+		// Wait for an opponent, who joins the same game
+		post(API_CONTEXT + "/matchmaking", "application/json", metrics.timed("POST /matchmaking", (request, response) -> {
+			String pieceType = null;
+			try {
+				RequestParser parser = new RequestParser(request.bodyAsBytes());
+				while (parser.nextField()) {
+					if (parser.fieldIs("pieceType")) {
+						pieceType = parser.stringValue("HOUND", "HARE");
+					} else {
+						parser.skipValue();
+					}
+				}
+			} catch (RequestParser.MalformedRequestException ex) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_REQUEST\"}";
+			}
+			if (pieceType == null) {
+				response.status(400);
+				return "{\"reason\": \"INVALID_REQUEST\"}";
+			}
+			try {
+				Matchmaking.Ticket ticket = gameService.findMatch(pieceType);
+				if (ticket == null) {
+					// Invalid pieceType
+					response.status(404);
+					return Collections.EMPTY_MAP;
+				}
+				return this.awaitMatch(ticket, 201, request, response);
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error("Failed to find an opponent");
+				response.status(500);
+				return Collections.EMPTY_MAP;
+			}
+		}));
+
+		// Check whether an opponent has been found
+		get(API_CONTEXT + "/matchmaking/:ticketId", "application/json", metrics.timed("GET /matchmaking/:ticketId", (request, response) -> {
+			Matchmaking.Ticket ticket = gameService.findTicket(request.params(":ticketId"));
+			if (ticket == null) {
+				response.status(404);
+				return "{\"reason\": \"INVALID_TICKET_ID\"}";
+			}
+			return this.awaitMatch(ticket, 200, request, response);
+		}));
+
+		// Stop waiting for an opponent
+		delete(API_CONTEXT + "/matchmaking/:ticketId", "application/json", metrics.timed("DELETE /matchmaking/:ticketId", (request, response) -> {
+			Matchmaking.Ticket ticket = gameService.findTicket(request.params(":ticketId"));
+			if (ticket == null) {
+				response.status(404);
+				return "{\"reason\": \"INVALID_TICKET_ID\"}";
+			} else if (!gameService.withdrawTicket(ticket)) {
+				// An opponent has been found; the game is on
+				response.status(410);
+				return "{\"reason\": \"ALREADY_MATCHED\"}";
+			}
+			response.status(200);
+			return Collections.EMPTY_MAP;
+		}));
 
 		// Join a game
-		put(API_CONTEXT + "/games/:gameId", "application/json", (request, response) -> {
+		put(API_CONTEXT + "/games/:gameId", "application/json", metrics.timed("PUT /games/:gameId", (request, response) -> {
 			int gameId = Integer.parseInt(request.params(":gameId"));
 			String playerId = "player2";
 			try {
-				Game game = gameService.findGame(gameId);
-				if (game == null) {
-					// Invalid gameId
-					response.status(404);
-					return "{\"reason\": \"INVALID_GAME_ID\"}";
-				} else {
-					String pieceType = game.join(playerId);
-					if (pieceType.equals("null")) {
-						// The second player has already joined.
-						response.status(410);
-						return Collections.EMPTY_MAP;
+				return this.changeGame(gameId, changed -> {
+					Game game = gameService.findGameToChange(gameId);
+					if (game == null) {
+						// Invalid gameId
+						response.status(404);
+						return "{\"reason\": \"INVALID_GAME_ID\"}";
 					} else {
-						gameService.updateGame(game, gameId);
-						response.status(200);
-						JSONObject obj = new JSONObject();
-						obj.put("gameId", gameId);
-						obj.put("playerId", playerId);
-						obj.put("pieceType", pieceType);
-						return obj.toString();
+						String pieceType = game.join(playerId);
+						if (pieceType.equals("null")) {
+							// The second player has already joined.
+							response.status(410);
+							return Collections.EMPTY_MAP;
+						} else {
+							gameService.updateGame(game, gameId);
+							changed.add(game);
+							response.status(200);
+							JSONObject obj = new JSONObject();
+							obj.put("gameId", gameId);
+							obj.put("playerId", playerId);
+							obj.put("pieceType", pieceType);
+							return obj.toString();
+						}
 					}
-				}
+				});
+			} catch (GameService.StaleGameException ex) {
+				this.logger.warn(String.format("Gave up joining game %d after conflicting updates", gameId));
+				response.status(409);
+				return "{\"reason\": \"CONCURRENT_UPDATE\"}";
 			} catch (GameService.GameServiceException ex) {
 				this.logger.error(String.format("Failed to find game with id: %s", request.params(":gameId")));
 				response.status(500);
 				return Collections.EMPTY_MAP;
 			}
-		});
+		}));
 
-		// Make a move (play a game)
-		post(API_CONTEXT + "/games/:gameId/turns", "application/json", (request, response) -> {
+		// Describe the whole game in one consistent read
+		get(API_CONTEXT + "/games/:gameId", "application/json", metrics.timed("GET /games/:gameId", (request, response) -> {
 			try {
 				int gameId = Integer.parseInt(request.params(":gameId"));
 				Game game = gameService.findGame(gameId);
@@ -94,50 +314,72 @@ public class GameController {
 					response.status(404);
 					return "{\"reason\": \"INVALID_GAME_ID\"}";
 				} else {
-					JSONObject data = new JSONObject(request.body());
-					String playerId = data.getString("playerId");
-					int fromX = data.getInt("fromX");
-					int fromY = data.getInt("fromY");
-					int toX = data.getInt("toX");
-					int toY = data.getInt("toY");
-					String rslt = game.turn(playerId, fromX, fromY, toX, toY);
-					switch (rslt) {
-					case "INVALID_PLAYER_ID":
+					return this.answerGame(gameId, game, request, response, Game::getSnapshot);
+				}
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error("Failed to get game snapshot");
+				response.status(500);
+				return Collections.EMPTY_MAP;
+			}
+		}));
+
+		// Make a move (play a game)
+		post(API_CONTEXT + "/games/:gameId/turns", "application/json", metrics.timed("POST /games/:gameId/turns", (request, response) -> {
+			int gameId = Integer.parseInt(request.params(":gameId"));
+			byte[] body = request.bodyAsBytes();
+			try {
+				return this.changeGame(gameId, changed -> {
+					Game game = gameService.findGameToChange(gameId);
+					if (game == null) {
 						response.status(404);
-						return String.format("{\"reason\": \"%s\"}", rslt);
-					case "INCORRECT_TURN":
-						response.status(422);
-						return String.format("{\"reason\": \"%s\"}", rslt);
-
-					case "ILLEGAL_MOVE":
-						response.status(422);
-						return String.format("{\"reason\": \"%s\"}", rslt);
-
-					case "SUCCESS":
-						// check stalling
-						if (gameService.isStalling(gameId)) {
-							game.setState("WIN_HARE_BY_STALLING");
+						return "{\"reason\": \"INVALID_GAME_ID\"}";
+					} else {
+						TurnRequest turn;
+						try {
+							turn = TurnRequest.parse(body, game);
+						} catch (RequestParser.MalformedRequestException ex) {
+							response.status(400);
+							return "{\"reason\": \"INVALID_REQUEST\"}";
 						}
-						playerId = game.nextPlayer();
-						gameService.updateGame(game, gameId);
-						gameService.insertBoard(gameId, game.getBoardStatus());
-						response.status(200);
-						return String.format("{\"playerId\": \"%s\"}", playerId);
-					default:
-						response.status(500);
-						return "";
-					}
+						String playerId = turn.playerId;
+						String rslt = game.turn(playerId, turn.fromX, turn.fromY, turn.toX, turn.toY);
+						metrics.countTurnResult(rslt);
+						switch (rslt) {
+						case "INVALID_PLAYER_ID":
+							response.status(404);
+							return String.format("{\"reason\": \"%s\"}", rslt);
+						case "INCORRECT_TURN":
+							response.status(422);
+							return String.format("{\"reason\": \"%s\"}", rslt);
 
-				}
+						case "ILLEGAL_MOVE":
+							response.status(422);
+							return String.format("{\"reason\": \"%s\"}", rslt);
+
+						case "SUCCESS":
+							playerId = this.finishTurn(gameId, game, changed);
+							response.status(200);
+							return String.format("{\"playerId\": \"%s\"}", playerId);
+						default:
+							response.status(500);
+							return "";
+						}
+
+					}
+				});
+			} catch (GameService.StaleGameException ex) {
+				this.logger.warn(String.format("Gave up moving in game %d after conflicting updates", gameId));
+				response.status(409);
+				return "{\"reason\": \"CONCURRENT_UPDATE\"}";
 			} catch (GameService.GameServiceException ex) {
 				this.logger.error("Failed to play the game");
 				response.status(500);
 				return Collections.EMPTY_MAP;
 			}
-		});
+		}));
 
 		// Describe the game board
-		get(API_CONTEXT + "/games/:gameId/board", "application/json", (request, response) -> {
+		get(API_CONTEXT + "/games/:gameId/board", "application/json", metrics.timed("GET /games/:gameId/board", (request, response) -> {
 			try {
 				int gameId = Integer.parseInt(request.params(":gameId"));
 				Game game = gameService.findGame(gameId);
@@ -145,18 +387,17 @@ public class GameController {
 					response.status(404);
 					return "{\"reason\": \"INVALID_GAME_ID\"}";
 				} else {
-					response.status(200);
-					return game.getBoardDescrition();
+					return this.answerGame(gameId, game, request, response, this::describeBoard);
 				}
 			} catch (GameService.GameServiceException ex) {
 				logger.error("Failed to get game board description");
 				response.status(500);
 				return Collections.EMPTY_MAP;
 			}
-		});
+		}));
 
 		// Describe the game state
-		get(API_CONTEXT + "/games/:gameId/state", "application/json", (request, response) -> {
+		get(API_CONTEXT + "/games/:gameId/state", "application/json", metrics.timed("GET /games/:gameId/state", (request, response) -> {
 			try {
 				int gameId = Integer.parseInt(request.params(":gameId"));
 				Game game = gameService.findGame(gameId);
@@ -165,18 +406,369 @@ public class GameController {
 
 					return "{\"reason\": \"INVALID_GAME_ID\"}";
 				} else {
+					return this.answerGame(gameId, game, request, response, newer -> {
+						JSONObject obj = new JSONObject();
+						obj.put("state", newer.getState());
+						return obj.toString();
+					});
+				}
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error("Failed to get game state");
+				response.status(500);
+				return Collections.EMPTY_MAP;
+			}
+		}));
+
+		// List the legal moves of the side to move
+		get(API_CONTEXT + "/games/:gameId/moves", "application/json", metrics.timed("GET /games/:gameId/moves", (request, response) -> {
+			try {
+				int gameId = Integer.parseInt(request.params(":gameId"));
+				Game game = gameService.findGame(gameId);
+				if (game == null) {
+					response.status(404);
+					return "{\"reason\": \"INVALID_GAME_ID\"}";
+				} else {
+					return this.answerGame(gameId, game, request, response, this::describeMoves);
+				}
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error("Failed to list the legal moves");
+				response.status(500);
+				return Collections.EMPTY_MAP;
+			}
+		}));
+
+		// Evaluate the game under perfect play
+		get(API_CONTEXT + "/games/:gameId/evaluation", "application/json", metrics.timed("GET /games/:gameId/evaluation", (request, response) -> {
+			try {
+				int gameId = Integer.parseInt(request.params(":gameId"));
+				Game game = gameService.findGame(gameId);
+				if (game == null) {
+					response.status(404);
+					return "{\"reason\": \"INVALID_GAME_ID\"}";
+				} else if (game.getTurn() == null) {
+					response.status(422);
+					return "{\"reason\": \"GAME_NOT_IN_PROGRESS\"}";
+				} else {
+					int entry = tablebase.probe(game.getPosition(), game.getTurn().equals("HARE"));
 					response.status(200);
 					JSONObject obj = new JSONObject();
-					obj.put("state", game.getState());
+					obj.put("turn", game.getTurn());
+					obj.put("value", Tablebase.VALUE_NAMES[Tablebase.valueOf(entry)]);
+					obj.put("plies", Tablebase.distanceOf(entry));
 					return obj.toString();
 				}
 			} catch (GameService.GameServiceException ex) {
-				this.logger.error("Failed to get game state");
+				this.logger.error("Failed to evaluate the game");
 				response.status(500);
 				return Collections.EMPTY_MAP;
 			}
+		}));
+
+		// Stream the game state and board whenever they change
+		get(API_CONTEXT + "/games/:gameId/events", "text/event-stream", metrics.timed("GET /games/:gameId/events", (request, response) -> {
+			try {
+				int gameId = Integer.parseInt(request.params(":gameId"));
+				Game game = gameService.findGame(gameId);
+				if (game == null) {
+					response.status(404);
+					return "{\"reason\": \"INVALID_GAME_ID\"}";
+				} else {
+					gameEvents.subscribe(gameId, request, () -> gameService.findGame(gameId));
+					return "";
+				}
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error("Failed to subscribe to game events");
+				response.status(500);
+				return Collections.EMPTY_MAP;
+			}
+		}));
+
+		// Expose the metrics to Prometheus
+		get("/metrics", (request, response) -> {
+			response.type("text/plain; version=0.0.4");
+			return metrics.render(gameService);
+		});
+
+	}
+
+	/**
+	 * Complete a successful move: pass the turn, commit the move and have the
+	 * clients following the game notified. If the computer is to move next,
+	 * its move is searched for in the background. Must be called holding the
+	 * lock of the game.
+	 * 
+	 * @param gameId
+	 *            id of the game
+	 * @param game
+	 *            the game after the move
+	 * @param changed
+	 *            games to publish once the lock is released
+	 * @return ID of the player who is to move next, null if the game is over
+	 */
+	private String finishTurn(int gameId, Game game, List<Game> changed) throws GameService.GameServiceException {
+		String playerId = game.nextPlayer();
+		// check stalling, unless the move has ended the game
+		if (playerId != null && gameService.isStalling(gameId, game)) {
+			game.setState("WIN_HARE_BY_STALLING");
+			playerId = null;
+		}
+		gameService.commitTurn(gameId, game);
+		changed.add(game);
+		this.playComputerTurn(gameId, game);
+		return playerId;
+	}
+
+	/**
+	 * Let the computer move if it is its turn. The move is searched for on the
+	 * pool of the computer player and dropped if the game has changed
+	 * meanwhile.
+	 * 
+	 * @param gameId
+	 *            id of the game
+	 * @param game
+	 *            the game as it is now
+	 */
+	private void playComputerTurn(int gameId, Game game) {
+		String turn = game.getTurn();
+		if (turn == null) {
+			return;
+		}
+		String playerId = turn.equals("HARE") ? game.getPlayerHare() : game.getPlayerHound();
+		int strength = ComputerPlayer.strengthOf(playerId);
+		if (strength == 0) {
+			return;
+		}
+		int version = game.getVersion();
+		computerPlayer.chooseMove(game.getPosition(), turn.equals("HARE"), strength).thenAccept(move -> {
+			try {
+				this.changeGame(gameId, changed -> {
+					Game current = gameService.findGameToChange(gameId);
+					if (move < 0 || current == null || current.getVersion() != version) {
+						return null;
+					}
+					int from = ComputerPlayer.fromOf(move);
+					int to = ComputerPlayer.toOf(move);
+					String rslt = current.turn(playerId, Board.xOf(from), Board.yOf(from), Board.xOf(to),
+							Board.yOf(to));
+					metrics.countTurnResult(rslt);
+					if (rslt.equals("SUCCESS")) {
+						this.finishTurn(gameId, current, changed);
+					} else {
+						this.logger.error(String.format("Computer move in game %d failed: %s", gameId, rslt));
+					}
+					return current;
+				});
+			} catch (GameService.GameServiceException ex) {
+				this.logger.error(String.format("Failed to play the computer move in game %d", gameId));
+			}
+		});
+	}
+
+	/**
+	 * A read-modify-write of a game: it reads the game, changes it and saves
+	 * it through the GameService. The games it saves are added to the list
+	 * of changed games, to be published to the clients.
+	 */
+	private interface GameChange<T> {
+		T apply(List<Game> changed) throws GameService.GameServiceException;
+	}
+
+	/**
+	 * Run a change of a game holding the lock of the game, so the changes of
+	 * one game on this server happen one after the other. If another server
+	 * sharing the database saves the game first, the change is run again on
+	 * the newer game, up to {@link #MAX_ATTEMPTS} times. The saved games are
+	 * published after the lock is released, so clients following the game
+	 * never hold up its changes.
+	 * 
+	 * @param gameId
+	 *            id of the game
+	 * @param change
+	 *            the change, which must read the game itself
+	 * @return the result of the change
+	 * @throws GameService.StaleGameException
+	 *             if every attempt conflicted
+	 */
+	private <T> T changeGame(int gameId, GameChange<T> change) throws GameService.GameServiceException {
+		ReentrantLock lock = gameLocks.lockFor(gameId);
+		List<Game> changed = new ArrayList<Game>(1);
+		lock.lock();
+		try {
+			for (int attempt = 1;; attempt++) {
+				try {
+					return change.apply(changed);
+				} catch (GameService.StaleGameException ex) {
+					if (attempt == MAX_ATTEMPTS) {
+						throw ex;
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+			for (Game game : changed) {
+				gameEvents.publish(gameId, game);
+			}
+		}
+	}
+
+	/**
+	 * Describe the legal moves of the side to move, from the cache if the
+	 * position has been described before.
+	 * 
+	 * @return JSON string with the side to move and its moves
+	 */
+	private String describeMoves(Game game) {
+		String turn = game.getTurn();
+		if (turn == null) {
+			return "{\"turn\":null,\"moves\":[]}";
+		}
+		int key = game.getPositionKey();
+		String moves = this.movesByPositionKey.get(key);
+		if (moves == null) {
+			JSONObject obj = new JSONObject();
+			obj.put("turn", turn);
+			obj.put("moves", Board.describeMoves(game.getPosition(), turn.equals("HARE")));
+			moves = obj.toString();
+			this.movesByPositionKey.set(key, moves);
+		}
+		return moves;
+	}
+
+	/**
+	 * Describe the board of a game, from the cache if the position has been
+	 * described before.
+	 * 
+	 * @return UTF-8 bytes of the JSON array of the four pieces
+	 */
+	private byte[] describeBoard(Game game) {
+		int position = game.getPosition();
+		byte[] board = this.boardByPosition.get(position);
+		if (board == null) {
+			board = game.getBoardDescrition().getBytes(StandardCharsets.UTF_8);
+			this.boardByPosition.set(position, board);
+		}
+		return board;
+	}
+
+	/**
+	 * Renders a game as the body of a response: a String or UTF-8 bytes.
+	 */
+	private interface GameView {
+		Object render(Game game);
+	}
+
+	/**
+	 * Answer a conditional GET of a game. Responses carry the version of the
+	 * game as ETag; if the client sends the current version in If-None-Match,
+	 * the request is suspended until a newer version comes, for up to the
+	 * number of seconds in the "wait" query parameter, and answered 304 Not
+	 * Modified if none comes.
+	 * 
+	 * @param gameId
+	 *            id of the game
+	 * @param game
+	 *            the game as it is now
+	 * @param view
+	 *            renders the body of a 200 answer
+	 * @return the body, or null if the request has been suspended
+	 */
+	private Object answerGame(int gameId, Game game, Request request, Response response, GameView view) {
+		String etag = etag(game);
+		if (!etag.equals(request.headers("If-None-Match"))) {
+			response.header("ETag", etag);
+			response.status(200);
+			return view.render(game);
+		}
+		int wait = waitSeconds(request);
+		if (wait == 0) {
+			response.status(304);
+			response.header("ETag", etag);
+			return "";
+		}
+		gameEvents.awaitChange(gameId, game.getVersion(), wait * 1000L, request, () -> gameService.findGame(gameId),
+				(raw, newer) -> {
+					if (newer == null) {
+						raw.setStatus(304);
+						raw.setHeader("ETag", etag);
+						return;
+					}
+					raw.setStatus(200);
+					raw.setHeader("ETag", etag(newer));
+					writeBody(raw, view.render(newer));
+				});
+		return null;
+	}
+
+	/**
+	 * Write the body of an answer to a suspended request.
+	 * 
+	 * @param body
+	 *            a String or UTF-8 bytes
+	 */
+	private static void writeBody(HttpServletResponse raw, Object body) throws IOException {
+		// The type Spark gives the answers it writes itself
+		raw.setContentType("text/html; charset=utf-8");
+		raw.getOutputStream().write(body instanceof byte[] ? (byte[]) body
+				: body.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Answer a player looking for an opponent with its game. If the player
+	 * has none yet, the request is suspended until the match is made, for up
+	 * to the number of seconds in the "wait" query parameter; if none is
+	 * made, it is answered 202 Accepted with the ticket of the player, to ask
+	 * again with GET /matchmaking/:ticketId.
+	 * 
+	 * @param matchedStatus
+	 *            status of the response if the player has an opponent
+	 * @return JSON string of the game of the player or of the ticket, or null
+	 *         if the request has been suspended
+	 */
+	private String awaitMatch(Matchmaking.Ticket ticket, int matchedStatus, Request request, Response response) {
+		JSONObject game = ticket.match.getNow(null);
+		if (game != null) {
+			response.status(matchedStatus);
+			return game.toString();
+		}
+		String waiting = new JSONObject().put("ticketId", ticket.ticketId).toString();
+		int wait = waitSeconds(request);
+		if (wait == 0) {
+			response.status(202);
+			return waiting;
+		}
+		LongPoll poll = new LongPoll(request, wait * 1000L, raw -> {
+			raw.setStatus(202);
+			writeBody(raw, waiting);
 		});
+		// A match is never completed exceptionally
+		ticket.match.whenComplete((matched, ex) -> poll.answer(raw -> {
+			raw.setStatus(matchedStatus);
+			writeBody(raw, matched.toString());
+		}));
+		return null;
+	}
+
+	/**
+	 * @return seconds in the "wait" query parameter, at most
+	 *         {@link #MAX_WAIT_SECONDS}; 0 if there is none or it is malformed
+	 */
+	private static int waitSeconds(Request request) {
+		int wait = 0;
+		try {
+			if (request.queryParams("wait") != null) {
+				wait = Math.min(Math.max(Integer.parseInt(request.queryParams("wait")), 0), MAX_WAIT_SECONDS);
+			}
+		} catch (NumberFormatException ex) {
+			// No waiting for a malformed wait parameter
+		}
+		return wait;
+	}
 
+	/**
+	 * @return entity tag of the current version of a game
+	 */
+	private static String etag(Game game) {
+		return "\"" + game.getVersion() + "\"";
 	}
 
 }
@@ -0,0 +1,380 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spark.Request;
+
+/**
+ * Notifications of game changes. Server-sent event streams hold an open
+ * asynchronous response, so waiting browsers do not tie up request threads;
+ * a change to a game is queued on all streams of that game at once. Long
+ * polling requests are suspended here, as a {@link LongPoll}, until the
+ * version of their game changes.
+ * 
+ * Events are written by a small pool of sender threads, never by the thread
+ * publishing them, so a slow client cannot hold up moves. A stream that
+ * falls {@link #MAX_PENDING_EVENTS} events behind is closed; the browser
+ * reconnects and starts over with the current game.
+ */
+class GameEvents {
+
+	private static final long HEARTBEAT_SECONDS = 15;
+	private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+	private static final int MAX_PENDING_EVENTS = 16;
+	private static final int SENDER_THREADS = 4;
+
+	private final ConcurrentHashMap<Integer, List<Stream>> streams = new ConcurrentHashMap<Integer, List<Stream>>();
+	private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "game-events-heartbeat");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ExecutorService senders = Executors.newFixedThreadPool(SENDER_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "game-events-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ConcurrentHashMap<Integer, Set<Waiter>> waiters = new ConcurrentHashMap<Integer, Set<Waiter>>();
+	private final Logger logger = LoggerFactory.getLogger(GameEvents.class);
+
+	/**
+	 * Writes the answer of a long polling request.
+	 */
+	interface GameAnswer {
+		/**
+		 * @param game
+		 *            the newer game, or null if none came in time
+		 */
+		void write(HttpServletResponse response, Game game) throws IOException;
+	}
+
+	/**
+	 * A long polling request of a game, waiting for another version than the
+	 * one its client has.
+	 */
+	private class Waiter {
+		private final int gameId;
+		private final int version;
+		private final GameAnswer answer;
+		private LongPoll poll;
+
+		Waiter(int gameId, int version, GameAnswer answer) {
+			this.gameId = gameId;
+			this.version = version;
+			this.answer = answer;
+		}
+
+		/**
+		 * Answer with a game, or with null on timeout.
+		 */
+		void finish(Game game) {
+			removeWaiter(this);
+			this.poll.answer(response -> this.answer.write(response, game));
+		}
+	}
+
+	/**
+	 * Reads a game as it is now.
+	 */
+	interface CurrentGame {
+		Game read() throws GameService.GameServiceException;
+	}
+
+	/**
+	 * An open event stream of a game, with the events waiting to be written
+	 * and the version of the game last queued; an older version is never
+	 * sent after a newer one. At most one sender writes to a stream at a
+	 * time.
+	 */
+	private class Stream implements Runnable {
+		private final int gameId;
+		private final AsyncContext context;
+		private final ArrayDeque<byte[]> pending = new ArrayDeque<byte[]>();
+		private int version = -1;
+		private boolean scheduled;
+		private boolean closed;
+
+		Stream(int gameId, AsyncContext context) {
+			this.gameId = gameId;
+			this.context = context;
+		}
+
+		synchronized void sendGame(Game game) {
+			if (game.getVersion() > this.version) {
+				this.version = game.getVersion();
+				this.send(toEvent(game));
+			}
+		}
+
+		/**
+		 * Queue an event for the senders.
+		 */
+		synchronized void send(byte[] event) {
+			if (this.closed) {
+				return;
+			}
+			if (this.pending.size() == MAX_PENDING_EVENTS) {
+				logger.debug("Closing slow event stream of game " + this.gameId);
+				this.close();
+				return;
+			}
+			this.pending.add(event);
+			if (!this.scheduled) {
+				this.scheduled = true;
+				senders.execute(this);
+			}
+		}
+
+		synchronized void sendHeartbeat() {
+			// A stream with events waiting is not idle
+			if (this.pending.isEmpty()) {
+				this.send(HEARTBEAT);
+			}
+		}
+
+		/**
+		 * Write the queued events, on a sender thread.
+		 */
+		@Override
+		public void run() {
+			try {
+				OutputStream out = this.context.getResponse().getOutputStream();
+				for (;;) {
+					byte[] event;
+					synchronized (this) {
+						event = this.pending.poll();
+						if (event == null) {
+							this.scheduled = false;
+							return;
+						}
+					}
+					out.write(event);
+					out.flush();
+				}
+			} catch (IOException | IllegalStateException ex) {
+				logger.debug("Closing event stream of game " + this.gameId);
+				synchronized (this) {
+					this.scheduled = false;
+					this.close();
+				}
+			}
+		}
+
+		synchronized void close() {
+			this.closed = true;
+			this.pending.clear();
+			unsubscribe(this.gameId, this);
+			try {
+				this.context.complete();
+			} catch (IllegalStateException alreadyCompleted) {
+				// The client is gone already
+			}
+		}
+	}
+
+	GameEvents() {
+		// Comments keep idle streams open through proxies and reveal closed
+		// ones
+		this.heartbeat.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Turn a request into an event stream of a game and send the current
+	 * state of the game as the first event. The game is read after the
+	 * stream is registered, so a change made meanwhile is not missed.
+	 * 
+	 * @param gameId
+	 *            id of the game to follow
+	 * @param request
+	 *            the request to answer with the stream
+	 * @param current
+	 *            reads the game as it is now
+	 */
+	void subscribe(int gameId, Request request, CurrentGame current)
+			throws IOException, GameService.GameServiceException {
+		AsyncContext context = request.raw().startAsync();
+		context.setTimeout(0);
+		Stream stream = new Stream(gameId, context);
+		HttpServletResponse response = (HttpServletResponse) context.getResponse();
+		response.setStatus(200);
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		// Committed right away, so Spark writes nothing more
+		response.flushBuffer();
+		context.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				unsubscribe(gameId, stream);
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				unsubscribe(gameId, stream);
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				unsubscribe(gameId, stream);
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		this.streams.compute(gameId, (id, subscribers) -> {
+			if (subscribers == null) {
+				subscribers = new CopyOnWriteArrayList<Stream>();
+			}
+			subscribers.add(stream);
+			return subscribers;
+		});
+		Game game;
+		try {
+			game = current.read();
+		} catch (GameService.GameServiceException ex) {
+			stream.close();
+			throw ex;
+		}
+		if (game == null) {
+			stream.close();
+		} else {
+			stream.sendGame(game);
+		}
+	}
+
+	/**
+	 * Suspend a request until a game has another version than the one its
+	 * client already has, or until the timeout passes. The route of the
+	 * request must return null; the request is answered later, off the
+	 * request thread.
+	 * 
+	 * @param gameId
+	 *            id of the game
+	 * @param version
+	 *            version of the game the client already has
+	 * @param timeoutMillis
+	 *            longest time to wait
+	 * @param request
+	 *            the request to suspend
+	 * @param current
+	 *            reads the game as it is now
+	 * @param answer
+	 *            writes the answer, with the newer game or on timeout
+	 */
+	void awaitChange(int gameId, int version, long timeoutMillis, Request request, CurrentGame current,
+			GameAnswer answer) {
+		Waiter waiter = new Waiter(gameId, version, answer);
+		waiter.poll = new LongPoll(request, timeoutMillis, response -> {
+			this.removeWaiter(waiter);
+			answer.write(response, null);
+		});
+		this.waiters.compute(gameId, (id, polls) -> {
+			if (polls == null) {
+				polls = ConcurrentHashMap.newKeySet();
+			}
+			polls.add(waiter);
+			return polls;
+		});
+		// Read after registering, so a change cannot slip in between
+		Game game;
+		try {
+			game = current.read();
+		} catch (GameService.GameServiceException ex) {
+			this.logger.error("Failed to read game " + gameId + " for a long polling request");
+			this.removeWaiter(waiter);
+			waiter.poll.answer(response -> response.setStatus(500));
+			return;
+		}
+		if (game != null && game.getVersion() != version) {
+			waiter.finish(game);
+		}
+	}
+
+	/**
+	 * Send the new state and board of a game to all its streams, and answer
+	 * the requests waiting for it to change. The events and answers are only
+	 * queued, but this should still be called without holding the lock of
+	 * the game. The game must not be changed afterwards.
+	 */
+	void publish(int gameId, Game game) {
+		Set<Waiter> polls = this.waiters.get(gameId);
+		if (polls != null) {
+			for (Waiter waiter : polls) {
+				if (waiter.version != game.getVersion()) {
+					waiter.finish(game);
+				}
+			}
+		}
+		List<Stream> subscribers = this.streams.get(gameId);
+		if (subscribers == null) {
+			return;
+		}
+		for (Stream stream : subscribers) {
+			stream.sendGame(game);
+		}
+	}
+
+	/**
+	 * @return number of open streams of a game
+	 */
+	int countSubscribers(int gameId) {
+		List<Stream> subscribers = this.streams.get(gameId);
+		return subscribers == null ? 0 : subscribers.size();
+	}
+
+	/**
+	 * Encode a game as one "message" event whose data is the snapshot of the
+	 * game.
+	 */
+	static byte[] toEvent(Game game) {
+		return ("data: " + game.getSnapshot() + "\n\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void sendHeartbeat() {
+		for (List<Stream> subscribers : this.streams.values()) {
+			for (Stream stream : subscribers) {
+				stream.sendHeartbeat();
+			}
+		}
+	}
+
+	private void removeWaiter(Waiter waiter) {
+		this.waiters.computeIfPresent(waiter.gameId, (id, polls) -> {
+			polls.remove(waiter);
+			return polls.isEmpty() ? null : polls;
+		});
+	}
+
+	private void unsubscribe(int gameId, Stream stream) {
+		this.streams.computeIfPresent(gameId, (id, subscribers) -> {
+			subscribers.remove(stream);
+			return subscribers.isEmpty() ? null : subscribers;
+		});
+	}
+}
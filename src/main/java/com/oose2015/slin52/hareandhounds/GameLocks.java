@@ -0,0 +1,41 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed table of locks shared by all games. Every change of a game reads
+ * it, changes the copy and writes it back; holding the lock of the game
+ * across the three steps serializes the changes of one game, while games
+ * whose ids fall on different stripes change in parallel.
+ */
+class GameLocks {
+
+	private final ReentrantLock[] stripes;
+
+	/**
+	 * @param stripes
+	 *            number of locks, rounded up to a power of two
+	 */
+	GameLocks(int stripes) {
+		int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * @param gameId
+	 *            id of the game
+	 * @return the lock guarding the game
+	 */
+	ReentrantLock lockFor(int gameId) {
+		// Game ids are handed out in sequence, so their low bits spread evenly
+		return this.stripes[gameId & (this.stripes.length - 1)];
+	}
+}
@@ -5,116 +5,221 @@
 
 package com.oose2015.slin52.hareandhounds;
 
-import com.google.gson.Gson;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sql2o.Connection;
-import org.sql2o.Query;
-import org.sql2o.Sql2o;
-import org.sql2o.Sql2oException;
-import org.sqlite.SQLiteDataSource;
-
-import javax.sql.DataSource;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Map;
 import org.json.*;
 
 public class GameService {
 
-	private Sql2o db;
-	private final Logger logger = LoggerFactory.getLogger(GameService.class);
+	/**
+	 * Database file used by the server, in the current directory.
+	 */
+	public static final String DATABASE_FILE = "game.db";
 
 	/**
-	 * Check if the database file exists in the current directory. If it does
-	 * create a DataSource instance for the file and return it. If it does not,
-	 * create a new database file
-	 * 
-	 * @return javax.sql.DataSource corresponding to the game database
+	 * The hare wins by stalling when a position occurs this often with the
+	 * same side to move.
 	 */
-	private static DataSource configureDataSource() {
-		Path dbPath = Paths.get(".", "game.db");
-		if (!(Files.exists(dbPath))) {
-			try {
-				Files.createFile(dbPath);
-				System.out.println(">> created the database file");
-			} catch (java.io.IOException ex) {
-				System.err.println(">> Failed to create the database file");
-			}
-		}
-		SQLiteDataSource dataSource = new SQLiteDataSource();
-		dataSource.setUrl("jdbc:sqlite:game.db");
-		return dataSource;
-	}
+	static final int STALLING_REPETITIONS = 3;
+
+	private static final int CACHE_CAPACITY = 10000;
+	private static final long CACHE_TTL_MILLIS = 30 * 60 * 1000;
+
+	private final GameStore store;
+	private final GameCache cache = new GameCache(CACHE_CAPACITY, CACHE_TTL_MILLIS);
+	private final Matchmaking matchmaking = new Matchmaking();
+	private final Metrics.Histogram newGameTimes;
+	private final Metrics.Histogram newGamesTimes;
+	private final Metrics.Histogram newMatchTimes;
+	private final Metrics.Histogram findGameTimes;
+	private final Metrics.Histogram updateGameTimes;
+	private final Metrics.Histogram commitTurnTimes;
+	private final Metrics.Histogram insertBoardTimes;
+	private final Metrics.Histogram loadRepetitionsTimes;
+	private final Logger logger = LoggerFactory.getLogger(GameService.class);
 
 	/**
 	 * Construct the service model. The current implementation also ensures that
-	 * the DB schema is created if necessary.
+	 * the DB schema is created if necessary, and migrates databases written
+	 * with board status strings to position integers.
 	 *
 	 */
 	public GameService() throws GameServiceException {
-		DataSource dataSource = configureDataSource();
-		this.db = new Sql2o(dataSource);
-		// Create schema
-		try (Connection conn = db.open()) {
-			String sqlGame = "CREATE TABLE IF NOT EXISTS game (gameId INTEGER PRIMARY KEY autoincrement,"
-					+ "state TEXT, boardStatus TEXT, playerHare TEXT, playerHound TEXT)";
-			String sqlBoard = "CREATE TABLE IF NOT EXISTS board (id INTEGER PRIMARY KEY autoincrement,"
-					+ "gameId INTEGER,	boardStatus TEXT)";
-			conn.createQuery(sqlGame).executeUpdate();
-			conn.createQuery(sqlBoard).executeUpdate();
-		} catch (Sql2oException ex) {
-			String errMsg = "Failed to create schema at startup";
-			this.logger.error(errMsg);
-			throw new GameServiceException(errMsg, ex);
+		this(Paths.get(".", DATABASE_FILE), new Metrics());
+	}
+
+	/**
+	 * Construct the service model on a database file of choice.
+	 * 
+	 * @param dbPath
+	 *            path of the database file
+	 */
+	public GameService(Path dbPath) throws GameServiceException {
+		this(dbPath, new Metrics());
+	}
+
+	/**
+	 * Construct the service model on a database file of choice, recording the
+	 * time spent on the database of every method.
+	 * 
+	 * @param dbPath
+	 *            path of the database file
+	 * @param metrics
+	 *            metrics to record the timings in
+	 */
+	GameService(Path dbPath, Metrics metrics) throws GameServiceException {
+		this(openSqlite(dbPath), metrics);
+	}
+
+	/**
+	 * Construct the service model on a game store of choice, recording the
+	 * time spent on the store by every method.
+	 * 
+	 * @param store
+	 *            where the games are kept; the service closes it
+	 * @param metrics
+	 *            metrics to record the timings in
+	 */
+	GameService(GameStore store, Metrics metrics) {
+		this.store = store;
+		this.newGameTimes = metrics.query("newGame");
+		this.newGamesTimes = metrics.query("newGames");
+		this.newMatchTimes = metrics.query("newMatch");
+		this.findGameTimes = metrics.query("findGame");
+		this.updateGameTimes = metrics.query("updateGame");
+		this.commitTurnTimes = metrics.query("commitTurn");
+		this.insertBoardTimes = metrics.query("insertBoard");
+		this.loadRepetitionsTimes = metrics.query("loadRepetitions");
+	}
+
+	private static GameStore openSqlite(Path dbPath) throws GameServiceException {
+		try {
+			return new SqliteGameStore(dbPath);
+		} catch (GameStore.StoreException ex) {
+			LoggerFactory.getLogger(GameService.class).error(ex.getMessage());
+			throw new GameServiceException(ex.getMessage(), ex);
 		}
 	}
 
 	/**
-	 * Update game information in the database.
+	 * Update game information in the database and the game cache. The version
+	 * of the game is increased by one. The update only succeeds if the game
+	 * in the database still has the version the game was read with.
 	 * 
 	 * @param game
 	 *            the game object to be updated.
 	 * @param gameId
 	 *            id of the game object.
+	 * @throws StaleGameException
+	 *             if the game has been changed since it was read; read it
+	 *             again and retry
 	 * @throws GameServiceException
 	 */
 	public void updateGame(Game game, int gameId) throws GameServiceException {
-		try (Connection conn = db.open()) {
-			String sql = "UPDATE game SET state = :state, " + "boardStatus = :boardStatus, playerHare = :playerHare, "
-					+ "playerHound = :playerHound WHERE gameId = :gameId";
-			conn.createQuery(sql).addParameter("gameId", gameId).bind(game).executeUpdate();
-		} catch (Sql2oException ex) {
-			String errMsg = "GameService.updateGame: Failed to update game";
-			this.logger.error(errMsg);
-			throw new GameServiceException(errMsg, ex);
+		game.setVersion(game.getVersion() + 1);
+		long start = System.nanoTime();
+		try {
+			if (!this.store.save(gameId, game)) {
+				this.conflict(gameId, game);
+			}
+		} catch (GameStore.StoreException ex) {
+			this.fail(gameId, game, "GameService.updateGame: Failed to update game", ex);
+		}
+		this.updateGameTimes.recordSince(start);
+		this.cache.put(gameId, game);
+	}
+
+	/**
+	 * Save a game after a move: update the game and insert its new board
+	 * position in one transaction, so either both or none are stored. The
+	 * transaction may be shared with the moves of other games. The version of
+	 * the game is increased by one; as with
+	 * {@link #updateGame(Game, int)}, nothing is saved if the game has been
+	 * changed since it was read.
+	 * 
+	 * @param gameId
+	 *            id of the game object.
+	 * @param game
+	 *            the game object right after the move.
+	 * @throws StaleGameException
+	 *             if the game has been changed since it was read
+	 * @throws GameServiceException
+	 */
+	public void commitTurn(int gameId, Game game) throws GameServiceException {
+		game.setVersion(game.getVersion() + 1);
+		long start = System.nanoTime();
+		try {
+			if (!this.store.saveTurn(gameId, game)) {
+				this.conflict(gameId, game);
+			}
+		} catch (GameStore.StoreException ex) {
+			this.fail(gameId, game, "GameService.commitTurn: Failed to save the move", ex);
 		}
+		this.commitTurnTimes.recordSince(start);
+		this.cache.put(gameId, game);
 	}
 
 	/**
-	 * Check if the players are stalling
+	 * Undo the version increase of a game that could not be saved and throw.
+	 * The cached copy may no longer match the database, so it is dropped.
+	 */
+	private void fail(int gameId, Game game, String errMsg, Exception ex) throws GameServiceException {
+		this.cache.remove(gameId);
+		game.setVersion(game.getVersion() - 1);
+		this.logger.error(errMsg);
+		throw new GameServiceException(errMsg, ex);
+	}
+
+	/**
+	 * Undo the version increase of a game that was changed by someone else
+	 * and throw.
+	 */
+	private void conflict(int gameId, Game game) throws StaleGameException {
+		this.cache.remove(gameId);
+		game.setVersion(game.getVersion() - 1);
+		throw new StaleGameException(String.format("Game %d has been changed by someone else", gameId), null);
+	}
+
+	/**
+	 * Record the current position of a game and check if the players are
+	 * stalling, i.e. the same position has occurred three times with the same
+	 * side to move. The positions of a game that was not cached with them are
+	 * counted from the database first.
 	 * 
 	 * @param gameId
 	 *            id of the game to be checked.
+	 * @param game
+	 *            the game right after a move.
 	 * @return true if stalling and false otherwise.
 	 * @throws GameServiceException
 	 */
-	public boolean isStalling(int gameId) throws GameServiceException {
-		try (Connection conn = db.open()) {
-			String sql = "select count(boardStatus) from board where gameId = :gameId "
-					+ "group by boardStatus order by count(boardStatus) desc limit 1";
-			int maxRepetition = conn.createQuery(sql).addParameter("gameId", gameId).executeScalar(Integer.class);
-			if (maxRepetition >= 3) {
-				return true;
-			} else {
-				return false;
-			}
+	public boolean isStalling(int gameId, Game game) throws GameServiceException {
+		if (game.getRepetitions() == null) {
+			game.setRepetitions(this.loadRepetitions(gameId));
+		}
+		return game.getRepetitions().increment(game.getPositionKey()) >= STALLING_REPETITIONS;
+	}
 
-		} catch (Sql2oException ex) {
-			String errMsg = "GameService.isStalling: Failed to check stalling";
+	/**
+	 * Count the positions of a game in the store. The hounds move first, so
+	 * the sides to move alternate starting with the hounds.
+	 */
+	private RepetitionCounter loadRepetitions(int gameId) throws GameServiceException {
+		long start = System.nanoTime();
+		try {
+			RepetitionCounter repetitions = new RepetitionCounter();
+			int[] positions = this.store.positions(gameId);
+			for (int i = 0; i < positions.length; i++) {
+				repetitions.increment(Game.positionKey(positions[i], i % 2 == 1));
+			}
+			this.loadRepetitionsTimes.recordSince(start);
+			return repetitions;
+		} catch (GameStore.StoreException ex) {
+			String errMsg = "GameService.isStalling: Failed to count the positions of the game";
 			this.logger.error(errMsg);
 			throw new GameServiceException(errMsg, ex);
 		}
@@ -134,11 +239,14 @@ public class GameService {
 		// Create the first player and join game
 		String playerId = "player1";
 		if (game.join(pieceType, playerId)) {
-			try (Connection conn = db.open()) {
-				String sql = "INSERT INTO game (state, boardStatus, playerHare, playerHound) "
-						+ "VALUES (:state, :boardStatus, :playerHare, :playerHound)";
-				int gameId = conn.createQuery(sql, true).bind(game).executeUpdate().getKey(Integer.class);
-				this.insertBoard(gameId, game.getBoardStatus());
+			long start = System.nanoTime();
+			try {
+				int gameId = this.store.create(game);
+				RepetitionCounter repetitions = new RepetitionCounter();
+				repetitions.increment(Game.positionKey(game.getPosition(), false));
+				game.setRepetitions(repetitions);
+				this.cache.put(gameId, game);
+				this.newGameTimes.recordSince(start);
 				// Generate response
 				JSONObject obj = new JSONObject();
 				obj.put("gameId", gameId);
@@ -146,7 +254,7 @@ public class GameService {
 				obj.put("pieceType", pieceType);
 				return obj;
 
-			} catch (Sql2oException ex) {
+			} catch (GameStore.StoreException ex) {
 				String errMsg = "GameService.newGame: Failed to create a new game";
 				this.logger.error(errMsg);
 				throw new GameServiceException(errMsg, ex);
@@ -158,20 +266,162 @@ public class GameService {
 	}
 
 	/**
-	 * Insert the board status string and gameId into database table "board".
+	 * Create many games at once, each with its first player joined, and save
+	 * them to the database in one transaction where the store supports it;
+	 * see {@link GameStore#createAll(Game[])}.
+	 * 
+	 * @param pieceTypes
+	 *            pieceType of the first player of every game to be created
+	 * @return A JSON array with the information of every new game, in the
+	 *         order of the piece types, or null if a piece type is invalid;
+	 *         no game is created then
+	 * @throws GameServiceException
+	 */
+	public JSONArray newGames(String[] pieceTypes) throws GameServiceException {
+		String playerId = "player1";
+		Game[] games = new Game[pieceTypes.length];
+		for (int i = 0; i < games.length; i++) {
+			games[i] = new Game();
+			if (!games[i].join(pieceTypes[i], playerId)) {
+				return null;
+			}
+		}
+		long start = System.nanoTime();
+		int[] gameIds;
+		try {
+			gameIds = this.store.createAll(games);
+		} catch (GameStore.StoreException ex) {
+			String errMsg = "GameService.newGames: Failed to create new games";
+			this.logger.error(errMsg);
+			throw new GameServiceException(errMsg, ex);
+		}
+		this.newGamesTimes.recordSince(start);
+		JSONArray array = new JSONArray();
+		for (int i = 0; i < games.length; i++) {
+			RepetitionCounter repetitions = new RepetitionCounter();
+			repetitions.increment(Game.positionKey(games[i].getPosition(), false));
+			games[i].setRepetitions(repetitions);
+			this.cache.put(gameIds[i], games[i]);
+			JSONObject obj = new JSONObject();
+			obj.put("gameId", gameIds[i]);
+			obj.put("playerId", playerId);
+			obj.put("pieceType", pieceTypes[i]);
+			array.put(obj);
+		}
+		return array;
+	}
+
+	/**
+	 * Find an opponent for a player. If players of the other piece type are
+	 * waiting, the one waiting longest is claimed and the game of the two is
+	 * created with both players joined; otherwise the player waits in the
+	 * queue of its piece type, without touching the database, until a player
+	 * of the other piece type comes. The player who waited is player1, the
+	 * other one player2.
+	 * 
+	 * @param pieceType
+	 *            pieceType the player wants to play
+	 * @return the ticket of the player, whose match is complete once the game
+	 *         is created, or null if the pieceType is invalid
+	 * @throws GameServiceException
+	 *             if the game could not be created; the opponent keeps
+	 *             waiting
+	 */
+	Matchmaking.Ticket findMatch(String pieceType) throws GameServiceException {
+		if (!pieceType.equals("HOUND") && !pieceType.equals("HARE")) {
+			return null;
+		}
+		Matchmaking.Ticket ticket = new Matchmaking.Ticket(pieceType);
+		for (;;) {
+			Matchmaking.Ticket opponent = this.matchmaking.claimOpponent(pieceType);
+			if (opponent != null) {
+				this.createMatch(opponent, ticket);
+				return ticket;
+			}
+			this.matchmaking.enqueue(ticket);
+			// An opponent may have queued meanwhile without seeing this player;
+			// then withdraw and claim it instead, unless it has claimed this
+			// player already; if another player claims it first, the ticket
+			// waits again
+			if (!this.matchmaking.hasOpponent(pieceType) || !this.matchmaking.withdraw(ticket)) {
+				return ticket;
+			}
+		}
+	}
+
+	/**
+	 * Create the game of two paired players and complete both their matches.
+	 * 
+	 * @param waiting
+	 *            the claimed ticket of the player who waited
+	 * @param ticket
+	 *            the ticket of the player who came
+	 */
+	private void createMatch(Matchmaking.Ticket waiting, Matchmaking.Ticket ticket) throws GameServiceException {
+		Game game = new Game();
+		game.join(waiting.pieceType, "player1");
+		game.join("player2");
+		long start = System.nanoTime();
+		int gameId;
+		try {
+			gameId = this.store.create(game);
+		} catch (GameStore.StoreException ex) {
+			this.matchmaking.requeue(waiting);
+			String errMsg = "GameService.findMatch: Failed to create the game of a match";
+			this.logger.error(errMsg);
+			throw new GameServiceException(errMsg, ex);
+		}
+		this.newMatchTimes.recordSince(start);
+		RepetitionCounter repetitions = new RepetitionCounter();
+		repetitions.increment(Game.positionKey(game.getPosition(), false));
+		game.setRepetitions(repetitions);
+		this.cache.put(gameId, game);
+		waiting.match.complete(new JSONObject().put("gameId", gameId).put("playerId", "player1")
+				.put("pieceType", waiting.pieceType));
+		ticket.match.complete(new JSONObject().put("gameId", gameId).put("playerId", "player2")
+				.put("pieceType", ticket.pieceType));
+	}
+
+	/**
+	 * Find the ticket of a player waiting for an opponent, or matched
+	 * recently.
+	 * 
+	 * @return the ticket, or null if there is none or it has expired
+	 */
+	Matchmaking.Ticket findTicket(String ticketId) {
+		return this.matchmaking.find(ticketId);
+	}
+
+	/**
+	 * Stop a player waiting for an opponent.
+	 * 
+	 * @return false if the player has already been paired
+	 */
+	boolean withdrawTicket(Matchmaking.Ticket ticket) {
+		return this.matchmaking.withdraw(ticket);
+	}
+
+	/**
+	 * @return number of players waiting for an opponent with a pieceType
+	 */
+	public int countWaitingPlayers(String pieceType) {
+		return this.matchmaking.countWaiting(pieceType);
+	}
+
+	/**
+	 * Insert the board position and gameId into database table "board".
 	 * 
 	 * @param gameId
 	 *            The id for the game.
-	 * @param boardStatus
-	 *            A string representation of the board screenshot.
+	 * @param position
+	 *            The board screenshot packed into a position integer.
 	 */
-	public void insertBoard(int gameId, String boardStatus) throws GameServiceException {
-		String sql = "INSERT INTO board (gameId, boardStatus) VALUES (:gameId, :boardStatus)";
-		try (Connection conn = db.open()) {
-			conn.createQuery(sql).addParameter("gameId", gameId).addParameter("boardStatus", boardStatus)
-					.executeUpdate();
-
-		} catch (Sql2oException ex) {
+	public void insertBoard(int gameId, int position) throws GameServiceException {
+		long start = System.nanoTime();
+		try {
+			this.store.appendPosition(gameId, position);
+			this.insertBoardTimes.recordSince(start);
+		} catch (GameStore.StoreException ex) {
 			String errMsg = "GameService.insertBoard: Failed to insert game board to database";
 			this.logger.error(errMsg);
 			throw new GameServiceException(errMsg, ex);
@@ -180,7 +430,11 @@ public class GameService {
 	}
 
 	/**
-	 * Find a game given an Id.
+	 * Find a game given an Id, from the game cache if it is there. A game
+	 * read from the database does not replace a game cached meanwhile, which
+	 * may be newer. The game may be the one in the cache, shared with every
+	 * other reader, so it must not be modified; see
+	 * {@link #findGameToChange(int)}.
 	 * 
 	 * @param gameId
 	 *            The id for the game.
@@ -188,11 +442,37 @@ public class GameService {
 	 *         otherwise null
 	 */
 	public Game findGame(int gameId) throws GameServiceException {
-		String sql = "SELECT state, boardStatus, playerHare, playerHound FROM game WHERE gameId = :gameId ";
-		try (Connection conn = db.open()) {
-			Game game = conn.createQuery(sql).addParameter("gameId", gameId).executeAndFetchFirst(Game.class);
+		return this.findGame(gameId, false);
+	}
+
+	/**
+	 * Find a game to change and save with {@link #updateGame(Game, int)} or
+	 * {@link #commitTurn(int, Game)}. The game is a copy of its own, with its
+	 * own repetition counter.
+	 * 
+	 * @param gameId
+	 *            The id for the game.
+	 * @return The game object corresponding to the id if one is found,
+	 *         otherwise null
+	 */
+	public Game findGameToChange(int gameId) throws GameServiceException {
+		return this.findGame(gameId, true);
+	}
+
+	private Game findGame(int gameId, boolean toChange) throws GameServiceException {
+		Game cached = this.cache.get(gameId);
+		if (cached != null) {
+			return toChange ? new Game(cached) : cached;
+		}
+		long start = System.nanoTime();
+		try {
+			Game game = this.store.load(gameId);
+			this.findGameTimes.recordSince(start);
+			if (game != null) {
+				this.cache.putIfAbsent(gameId, game);
+			}
 			return game;
-		} catch (Sql2oException ex) {
+		} catch (GameStore.StoreException ex) {
 			String errMsg = "GameService.findGame: Failed to find the game with given gameId in the database";
 			this.logger.error(errMsg);
 			throw new GameServiceException(errMsg, ex);
@@ -200,9 +480,52 @@ public class GameService {
 
 	}
 
+	/**
+	 * Count the games in the game cache by state. These are the games played
+	 * recently on this server, not all games in progress in the database.
+	 * 
+	 * @return number of games for every state that occurs
+	 */
+	public Map<String, Integer> countCachedGames() {
+		return this.cache.countByState();
+	}
+
+	/**
+	 * @return number of findGame calls answered by the game cache
+	 */
+	public long getCacheHits() {
+		return this.cache.getHits();
+	}
+
+	/**
+	 * @return number of findGame calls that had to read the database
+	 */
+	public long getCacheMisses() {
+		return this.cache.getMisses();
+	}
+
+	/**
+	 * Close the game store. The service cannot be used afterwards.
+	 */
+	public void close() {
+		this.matchmaking.close();
+		this.store.close();
+	}
+
 	public static class GameServiceException extends Exception {
 		public GameServiceException(String message, Throwable cause) {
 			super(message, cause);
 		}
 	}
+
+	/**
+	 * A game could not be saved because it was changed after it was read, by
+	 * another request or another server sharing the database. Nothing has
+	 * been saved; reading the game again and retrying may succeed.
+	 */
+	public static class StaleGameException extends GameServiceException {
+		public StaleGameException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
 }
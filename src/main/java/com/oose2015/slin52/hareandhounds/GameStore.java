@@ -0,0 +1,115 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.nio.file.Path;
+
+/**
+ * Where the games and the positions they went through are kept. A store
+ * keeps its own copies of the games; callers are free to modify what they
+ * load and save. Failures are thrown as {@link StoreException}.
+ */
+interface GameStore {
+
+	/**
+	 * Names of the stores that {@link #open(String, Path)} knows.
+	 */
+	String SQLITE = "sqlite";
+	String MEMORY = "memory";
+	String LOG = "log";
+
+	/**
+	 * Save a new game and its first position.
+	 * 
+	 * @return id of the game
+	 */
+	int create(Game game);
+
+	/**
+	 * Save new games and their first positions. This default creates them
+	 * one by one, so if one fails, the games before it stay created; a store
+	 * that can save them in one transaction overrides it to create all or
+	 * none.
+	 * 
+	 * @return ids of the games, in the order of the games
+	 */
+	default int[] createAll(Game[] games) {
+		int[] gameIds = new int[games.length];
+		for (int i = 0; i < games.length; i++) {
+			gameIds[i] = this.create(games[i]);
+		}
+		return gameIds;
+	}
+
+	/**
+	 * @return the game with the given id, null if there is none
+	 */
+	Game load(int gameId);
+
+	/**
+	 * Save a game if the stored game still has the version before the
+	 * version of the given game.
+	 * 
+	 * @return false if the stored game has another version; nothing has been
+	 *         saved then
+	 */
+	boolean save(int gameId, Game game);
+
+	/**
+	 * Save a game after a move together with its new position, both or none,
+	 * under the same condition as {@link #save(int, Game)}.
+	 * 
+	 * @return false if the stored game has another version; nothing has been
+	 *         saved then
+	 */
+	boolean saveTurn(int gameId, Game game);
+
+	/**
+	 * Add a position to the positions of a game.
+	 */
+	void appendPosition(int gameId, int position);
+
+	/**
+	 * @return the positions of a game in the order they occurred, starting
+	 *         with the first position
+	 */
+	int[] positions(int gameId);
+
+	/**
+	 * Release the files of the store. It cannot be used afterwards.
+	 */
+	void close();
+
+	/**
+	 * Open a store by name.
+	 * 
+	 * @param name
+	 *            {@link #SQLITE}, {@link #MEMORY} or {@link #LOG}
+	 * @param directory
+	 *            directory holding the files of the store
+	 */
+	static GameStore open(String name, Path directory) {
+		switch (name) {
+		case SQLITE:
+			return new SqliteGameStore(directory.resolve(GameService.DATABASE_FILE));
+		case MEMORY:
+			return new MemoryGameStore();
+		case LOG:
+			return new LogGameStore(directory.resolve(LogGameStore.LOG_DIRECTORY));
+		default:
+			throw new StoreException("Unknown game store: " + name, null);
+		}
+	}
+
+	/**
+	 * A store failed to read or write.
+	 */
+	class StoreException extends RuntimeException {
+		StoreException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+/**
+ * The only thread writing to the database. Writes submitted by concurrent
+ * requests are queued and committed together in one transaction (group
+ * commit), so many moves share one fsync. A batch is started as soon as a
+ * write arrives and waits at most {@link #MAX_LINGER_MICROS} for more writes.
+ * Every write runs in a savepoint of its own: a write that fails, e.g. on a
+ * version conflict, is undone alone and the rest of the batch commits.
+ */
+class GroupCommitWriter {
+
+	/**
+	 * A unit of work that must be committed atomically.
+	 */
+	interface Write {
+		void apply(Connection conn);
+	}
+
+	private static final int MAX_BATCH = 256;
+	private static final long MAX_LINGER_MICROS = 500;
+
+	/**
+	 * Longest time a request waits for its write to commit.
+	 */
+	private static final long COMMIT_TIMEOUT_MILLIS = 30000;
+
+	private final Sql2o db;
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+	private final Thread thread;
+	private final Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+	private volatile boolean running = true;
+
+	private static class Pending {
+		private final Write write;
+		private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+		Pending(Write write) {
+			this.write = write;
+		}
+	}
+
+	GroupCommitWriter(Sql2o db) {
+		this.db = db;
+		this.thread = new Thread(this::run, "game-writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Commit a write and wait until it is durable.
+	 * 
+	 * @param write
+	 *            statements to run in one transaction
+	 * @throws Sql2oException
+	 *             if the write failed; nothing of it has been committed.
+	 *             Also if it has not been committed within
+	 *             {@link #COMMIT_TIMEOUT_MILLIS}; it may still be committed
+	 *             then.
+	 */
+	void submit(Write write) {
+		if (!this.running) {
+			throw new Sql2oException("The database writer has been stopped");
+		}
+		Pending pending = new Pending(write);
+		this.queue.add(pending);
+		// The writer may have stopped and failed the queue just before the
+		// write was added; then nobody else takes it off the queue
+		if (!this.running && this.queue.remove(pending)) {
+			throw new Sql2oException("The database writer has been stopped");
+		}
+		try {
+			pending.done.get(COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new Sql2oException("Interrupted while waiting for the write to commit", ex);
+		} catch (TimeoutException ex) {
+			throw new Sql2oException("The write was not committed within " + COMMIT_TIMEOUT_MILLIS + " ms", ex);
+		} catch (ExecutionException ex) {
+			throw ex.getCause() instanceof Sql2oException ? (Sql2oException) ex.getCause()
+					: new Sql2oException("Failed to commit the write", ex.getCause());
+		}
+	}
+
+	/**
+	 * Stop the writer; writes still queued fail.
+	 */
+	void stop() {
+		this.running = false;
+		this.thread.interrupt();
+		try {
+			this.thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (Pending pending = this.queue.poll(); pending != null; pending = this.queue.poll()) {
+			pending.done.completeExceptionally(new Sql2oException("The database writer has been stopped"));
+		}
+	}
+
+	private void run() {
+		List<Pending> batch = new ArrayList<Pending>(MAX_BATCH);
+		while (this.running) {
+			try {
+				batch.add(this.queue.take());
+				long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(MAX_LINGER_MICROS);
+				this.queue.drainTo(batch, MAX_BATCH - batch.size());
+				while (batch.size() < MAX_BATCH) {
+					Pending next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					this.queue.drainTo(batch, MAX_BATCH - batch.size());
+				}
+			} catch (InterruptedException ex) {
+				// Stopped; fail what was taken from the queue
+				for (Pending pending : batch) {
+					pending.done.completeExceptionally(new Sql2oException("The database writer has been stopped"));
+				}
+				return;
+			}
+			this.commit(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Commit a batch in one transaction, undoing the writes that fail. If the
+	 * transaction itself fails, commit every write on its own so only the
+	 * failing ones are reported.
+	 */
+	private void commit(List<Pending> batch) {
+		RuntimeException[] failures = new RuntimeException[batch.size()];
+		try (Connection conn = this.db.beginTransaction(java.sql.Connection.TRANSACTION_SERIALIZABLE)) {
+			java.sql.Connection jdbc = conn.getJdbcConnection();
+			for (int i = 0; i < batch.size(); i++) {
+				Savepoint savepoint = jdbc.setSavepoint();
+				try {
+					batch.get(i).write.apply(conn);
+				} catch (RuntimeException ex) {
+					jdbc.rollback(savepoint);
+					failures[i] = ex;
+				}
+				jdbc.releaseSavepoint(savepoint);
+			}
+			conn.commit();
+		} catch (SQLException | RuntimeException ex) {
+			if (batch.size() == 1) {
+				batch.get(0).done.completeExceptionally(ex instanceof RuntimeException ? ex
+						: new Sql2oException("Failed to commit the write", ex));
+			} else {
+				this.logger.warn("Group commit of " + batch.size() + " writes failed; committing them one by one");
+				for (Pending pending : batch) {
+					this.commit(pending);
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			if (failures[i] == null) {
+				batch.get(i).done.complete(null);
+			} else {
+				batch.get(i).done.completeExceptionally(failures[i]);
+			}
+		}
+	}
+
+	private void commit(Pending pending) {
+		try (Connection conn = this.db.beginTransaction(java.sql.Connection.TRANSACTION_SERIALIZABLE)) {
+			pending.write.apply(conn);
+			conn.commit();
+		} catch (RuntimeException ex) {
+			pending.done.completeExceptionally(ex);
+			return;
+		}
+		pending.done.complete(null);
+	}
+}
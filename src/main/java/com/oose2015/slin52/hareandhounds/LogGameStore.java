@@ -0,0 +1,653 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Games kept in memory, and every change appended to a log of segment files
+ * mapped into memory. Every record starts with its type, its game and the
+ * sequence number of the previous record of the game. A move is then
+ * written as the vertices moved from and to and the resulting state; other
+ * changes are written with the whole game. The log doubles as the complete
+ * history of every game, so segments are never removed.
+ * 
+ * Only games in progress are kept in memory. A finished game is dropped, and
+ * its slot in the index file records the sequence numbers of its first and
+ * last records; asking for the game again follows the chain of its records
+ * back from the last one and applies them, so it reads no other records.
+ * 
+ * A snapshot of the games in memory is written every
+ * {@link #SNAPSHOT_RECORDS} records and on close. Opening the store loads
+ * the last snapshot and replays only the records written after it. Every
+ * game in a snapshot carries the sequence number of the last record applied
+ * to it, so a snapshot can be taken while games change.
+ * 
+ * Records are in the page cache as soon as they are written, so they
+ * survive a crash of the server. The segments and the index are forced to
+ * disk every second and before a snapshot replaces the last one.
+ */
+class LogGameStore extends MemoryGameStore {
+
+	/**
+	 * Directory of the log used by the server, in the current directory.
+	 */
+	static final String LOG_DIRECTORY = "game-log";
+
+	private static final String SNAPSHOT_FILE = "snapshot";
+	private static final String INDEX_FILE = "index";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int SNAPSHOT_MAGIC = 0x48485350;
+
+	private static final int SEGMENT_SIZE = 64 << 20;
+	private static final long SNAPSHOT_RECORDS = 1 << 20;
+	private static final long FLUSH_MILLIS = 1000;
+
+	/**
+	 * Record types. A type byte of 0 ends the records of a segment; it is
+	 * written after the rest of the record, so a record cut short by a crash
+	 * is never read.
+	 */
+	private static final byte CREATED = 1;
+	private static final byte SAVED = 2;
+	private static final byte TURN_SAVED = 3;
+	private static final byte MOVED = 4;
+	private static final byte APPENDED = 5;
+
+	/**
+	 * Size of the type, the game and the sequence number of the previous
+	 * record of the game, plus one so that the first record reads as zero.
+	 */
+	private static final int HEADER_SIZE = 13;
+	private static final int MOVED_SIZE = HEADER_SIZE + 3;
+	private static final int APPENDED_SIZE = HEADER_SIZE + 4;
+
+	/**
+	 * Size of the slot of a game in the index: the sequence numbers of its
+	 * first and last records, plus one so that an empty slot reads as zeros.
+	 */
+	private static final int SLOT_SIZE = 16;
+
+	/**
+	 * States a move can lead to, by their number in a move record.
+	 */
+	private static final String[] MOVED_STATES = { "TURN_HOUND", "TURN_HARE", "WIN_HARE_BY_ESCAPE",
+			"WIN_HARE_BY_STALLING", "WIN_HOUND" };
+
+	private final Path directory;
+	private final int segmentSize;
+	private final FileChannel index;
+	private final ScheduledExecutorService flusher;
+	private final Logger logger = LoggerFactory.getLogger(LogGameStore.class);
+
+	// Guarded by this
+	private MappedByteBuffer segment;
+	private int segmentIndex;
+	private long recordsSinceSnapshot;
+
+	/**
+	 * Open the log in a directory, replaying it if it exists.
+	 * 
+	 * @param directory
+	 *            directory of the segments and the snapshot
+	 */
+	LogGameStore(Path directory) {
+		this(directory, SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param segmentSize
+	 *            size of a segment file in bytes
+	 */
+	LogGameStore(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		try {
+			Files.createDirectories(directory);
+			this.index = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.replay(this.loadSnapshot());
+		} catch (IOException ex) {
+			throw new StoreException("Failed to open the game log in " + directory, ex);
+		}
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "game-log");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Restore the games of the last snapshot.
+	 * 
+	 * @return sequence number of the first record the snapshot may not hold
+	 */
+	private long loadSnapshot() throws IOException {
+		Path path = this.directory.resolve(SNAPSHOT_FILE);
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a snapshot of the game log: " + path);
+			}
+			long start = in.readLong();
+			this.reserveGameIds(in.readInt());
+			int games = 0;
+			while (in.readBoolean()) {
+				int gameId = in.readInt();
+				long created = in.readLong();
+				long sequence = in.readLong();
+				Game game = new Game();
+				game.setVersion(in.readInt());
+				game.setPosition(in.readInt());
+				game.setState(readString(in));
+				game.setPlayerHare(readString(in));
+				game.setPlayerHound(readString(in));
+				Record record = new Record(gameId, game);
+				record.created = created;
+				record.sequence = sequence;
+				for (int i = in.readInt(); i > 0; i--) {
+					record.add(in.readInt());
+				}
+				this.restore(record);
+				games++;
+			}
+			this.logger.info(String.format("Restored %d games from %s", games, path));
+			return start;
+		}
+	}
+
+	/**
+	 * Apply the records from a sequence number on, and make the end of the
+	 * last segment the place of the next record. Games that are finished
+	 * afterwards are dropped from memory.
+	 */
+	private void replay(long start) throws IOException {
+		int first = (int) (start / this.segmentSize);
+		int last;
+		try (Stream<Path> files = Files.list(this.directory)) {
+			last = files.map(file -> file.getFileName().toString()).filter(name -> name.endsWith(SEGMENT_SUFFIX))
+					.mapToInt(name -> Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+					.max().orElse(first);
+		}
+		long records = 0;
+		for (int index = first; index <= Math.max(first, last); index++) {
+			MappedByteBuffer buffer = this.map(index);
+			buffer.position(index == first ? (int) (start % this.segmentSize) : 0);
+			records += this.replay(index, buffer);
+			this.segment = buffer;
+			this.segmentIndex = index;
+		}
+		for (Record record : this.records()) {
+			this.evictIfFinished(record);
+		}
+		this.logger.info(String.format("Replayed %d records of %s", records, this.directory));
+	}
+
+	/**
+	 * Apply the records of a segment from its position on, skipping those
+	 * that the snapshot already holds. Leaves the position at the end of the
+	 * records.
+	 * 
+	 * @return number of records applied
+	 */
+	private long replay(int index, ByteBuffer buffer) throws IOException {
+		long records = 0;
+		while (buffer.position() < this.segmentSize && buffer.get(buffer.position()) != 0) {
+			long sequence = (long) index * this.segmentSize + buffer.position();
+			byte type = buffer.get();
+			int gameId = buffer.getInt();
+			buffer.getLong();
+			Record record = this.findLiveRecord(gameId);
+			if (record == null && type != CREATED) {
+				throw new IOException(String.format("Record of unknown game %d at %d", gameId, sequence));
+			}
+			boolean apply = record == null || sequence > record.sequence;
+			Record applied = this.apply(buffer, sequence, type, gameId, record, apply);
+			if (record == null) {
+				this.restore(applied);
+			}
+			if (apply) {
+				records++;
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Read the rest of a record, and apply it to the record of its game if
+	 * apply is true. Leaves the position after the record.
+	 * 
+	 * @param record
+	 *            record of the game, null if the record creates the game
+	 * @return the record of the game, a new one if the record created it
+	 */
+	private Record apply(ByteBuffer buffer, long sequence, byte type, int gameId, Record record, boolean apply)
+			throws IOException {
+		switch (type) {
+		case CREATED:
+		case SAVED:
+		case TURN_SAVED:
+			Game game = readGame(buffer);
+			if (!apply) {
+				break;
+			}
+			if (record == null) {
+				record = new Record(gameId, game);
+				record.created = sequence;
+			} else {
+				record.set(game);
+			}
+			if (type != SAVED) {
+				record.add(game.getPosition());
+			}
+			break;
+		case MOVED:
+			int from = buffer.get();
+			int to = buffer.get();
+			String state = MOVED_STATES[buffer.get()];
+			if (apply) {
+				record.game.setPosition(Board.move(record.game.getPosition(), from, to));
+				record.game.setState(state);
+				record.game.setVersion(record.game.getVersion() + 1);
+				record.add(record.game.getPosition());
+			}
+			break;
+		case APPENDED:
+			int position = buffer.getInt();
+			if (apply) {
+				record.add(position);
+			}
+			break;
+		default:
+			throw new IOException(String.format("Unknown record type %d at %d", type, sequence));
+		}
+		if (apply) {
+			record.sequence = sequence;
+		}
+		return record;
+	}
+
+	/**
+	 * Write the first and last records of a finished game to its slot in the
+	 * index; the game can then be dropped from memory.
+	 */
+	@Override
+	boolean evict(Record record) {
+		ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+		slot.putLong(0, record.created + 1);
+		slot.putLong(8, record.sequence + 1);
+		try {
+			this.index.write(slot, (long) record.gameId * SLOT_SIZE);
+			return true;
+		} catch (IOException ex) {
+			this.logger.warn("Failed to index game " + record.gameId + "; it is kept in memory", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Read a finished game back from the index: collect its records by
+	 * following their back pointers from the last one to the first one, then
+	 * apply them in order.
+	 */
+	@Override
+	Record reload(int gameId) {
+		ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+		try {
+			if (this.index.read(slot, (long) gameId * SLOT_SIZE) < SLOT_SIZE || slot.getLong(0) == 0) {
+				return null;
+			}
+			long first = slot.getLong(0) - 1;
+			long[] chain = new long[16];
+			int size = 0;
+			MappedByteBuffer buffer = null;
+			int bufferIndex = -1;
+			for (long sequence = slot.getLong(8) - 1; sequence >= 0;) {
+				if (sequence < first) {
+					throw new IOException(String.format("Record at %d of game %d before its first record at %d",
+							sequence, gameId, first));
+				}
+				if (sequence / this.segmentSize != bufferIndex) {
+					bufferIndex = (int) (sequence / this.segmentSize);
+					buffer = this.map(bufferIndex);
+				}
+				if (size == chain.length) {
+					chain = Arrays.copyOf(chain, 2 * size);
+				}
+				chain[size++] = sequence;
+				sequence = buffer.getLong((int) (sequence % this.segmentSize) + 5) - 1;
+			}
+			Record record = null;
+			for (int i = size - 1; i >= 0; i--) {
+				long sequence = chain[i];
+				if (sequence / this.segmentSize != bufferIndex) {
+					bufferIndex = (int) (sequence / this.segmentSize);
+					buffer = this.map(bufferIndex);
+				}
+				buffer.position((int) (sequence % this.segmentSize));
+				byte type = buffer.get();
+				if (buffer.getInt() != gameId || (record == null) != (type == CREATED)) {
+					throw new IOException(String.format("Broken chain of records of game %d at %d", gameId, sequence));
+				}
+				buffer.getLong();
+				record = this.apply(buffer, sequence, type, gameId, record, true);
+			}
+			return record;
+		} catch (IOException ex) {
+			throw new StoreException("Failed to read game " + gameId + " back from the game log", ex);
+		}
+	}
+
+	@Override
+	void created(Record record) {
+		this.writeGame(CREATED, record, record.game);
+	}
+
+	@Override
+	void saved(Record record, Game game, boolean appendPosition) {
+		int move = appendPosition ? moveOf(record.game, game) : -1;
+		if (move < 0) {
+			this.writeGame(appendPosition ? TURN_SAVED : SAVED, record, game);
+			return;
+		}
+		synchronized (this) {
+			int at = this.reserve(MOVED_SIZE);
+			this.putHeader(at, MOVED, record);
+			this.segment.put(at + HEADER_SIZE, (byte) (move >>> 16));
+			this.segment.put(at + HEADER_SIZE + 1, (byte) (move >>> 8));
+			this.segment.put(at + HEADER_SIZE + 2, (byte) move);
+			this.commit(record, at, MOVED, MOVED_SIZE);
+		}
+	}
+
+	@Override
+	void appended(Record record, int position) {
+		synchronized (this) {
+			int at = this.reserve(APPENDED_SIZE);
+			this.putHeader(at, APPENDED, record);
+			this.segment.putInt(at + HEADER_SIZE, position);
+			this.commit(record, at, APPENDED, APPENDED_SIZE);
+		}
+	}
+
+	private void writeGame(byte type, Record record, Game game) {
+		byte[][] strings = { bytesOf(game.getState()), bytesOf(game.getPlayerHare()), bytesOf(game.getPlayerHound()) };
+		int size = HEADER_SIZE + 8;
+		for (byte[] string : strings) {
+			size += 2 + (string == null ? 0 : string.length);
+		}
+		synchronized (this) {
+			int at = this.reserve(size);
+			this.putHeader(at, type, record);
+			this.segment.position(at + HEADER_SIZE);
+			this.segment.putInt(game.getVersion());
+			this.segment.putInt(game.getPosition());
+			for (byte[] string : strings) {
+				if (string == null) {
+					this.segment.putShort((short) -1);
+				} else {
+					this.segment.putShort((short) string.length);
+					this.segment.put(string);
+				}
+			}
+			this.commit(record, at, type, size);
+		}
+	}
+
+	/**
+	 * Write the game of a record and the sequence number of the previous
+	 * record of the game, if there is one; the type is written by
+	 * {@link #commit(Record, int, byte, int)}. Called holding the monitor of
+	 * the store.
+	 */
+	private void putHeader(int at, byte type, Record record) {
+		this.segment.putInt(at + 1, record.gameId);
+		this.segment.putLong(at + 5, type == CREATED ? 0 : record.sequence + 1);
+	}
+
+	/**
+	 * Encode a move as the vertex moved from, the vertex moved to and the
+	 * number of the resulting state.
+	 * 
+	 * @return the move packed as from << 16 | to << 8 | state, -1 if the
+	 *         change is not a move of one piece to a known state
+	 */
+	private static int moveOf(Game before, Game after) {
+		int state = Arrays.asList(MOVED_STATES).indexOf(after.getState());
+		if (state < 0 || !Objects.equals(before.getPlayerHare(), after.getPlayerHare())
+				|| !Objects.equals(before.getPlayerHound(), after.getPlayerHound())) {
+			return -1;
+		}
+		int position = before.getPosition();
+		int from = Board.hareOf(position);
+		int to = Board.hareOf(after.getPosition());
+		if (from == to) {
+			int hounds = Board.houndsOf(position);
+			int moved = Board.houndsOf(after.getPosition());
+			from = Integer.numberOfTrailingZeros(hounds & ~moved);
+			to = Integer.numberOfTrailingZeros(moved & ~hounds);
+		}
+		if (from >= Board.VERTEX_COUNT || to >= Board.VERTEX_COUNT
+				|| Board.move(position, from, to) != after.getPosition()) {
+			return -1;
+		}
+		return from << 16 | to << 8 | state;
+	}
+
+	/**
+	 * Make room for a record, moving on to a new segment if the current one
+	 * is full. Called holding the monitor of the store.
+	 * 
+	 * @return offset of the record in the current segment
+	 */
+	private int reserve(int size) {
+		if (size > this.segmentSize) {
+			throw new StoreException("Record too large for a segment of the game log", null);
+		}
+		if (this.segment.position() + size > this.segmentSize) {
+			try {
+				this.segment.force();
+				this.segment = this.map(this.segmentIndex + 1);
+				this.segmentIndex++;
+			} catch (IOException ex) {
+				throw new StoreException("Failed to start a new segment of the game log", ex);
+			}
+		}
+		return this.segment.position();
+	}
+
+	/**
+	 * Mark a record as complete by writing its type. Called holding the
+	 * monitor of the store.
+	 */
+	private void commit(Record record, int at, byte type, int size) {
+		this.segment.put(at, type);
+		this.segment.position(at + size);
+		record.sequence = (long) this.segmentIndex * this.segmentSize + at;
+		if (type == CREATED) {
+			record.created = record.sequence;
+		}
+		this.recordsSinceSnapshot++;
+	}
+
+	private MappedByteBuffer map(int index) throws IOException {
+		Path path = this.directory.resolve(String.format("%010d%s", index, SEGMENT_SUFFIX));
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+		}
+	}
+
+	/**
+	 * Force the segments to disk, and take a snapshot if enough records have
+	 * been written since the last one.
+	 */
+	private void flush() {
+		try {
+			boolean due;
+			synchronized (this) {
+				due = this.recordsSinceSnapshot >= SNAPSHOT_RECORDS;
+			}
+			if (due) {
+				this.snapshot();
+			} else {
+				this.force();
+			}
+		} catch (IOException | RuntimeException ex) {
+			this.logger.error("Failed to flush the game log", ex);
+		}
+	}
+
+	private void force() throws IOException {
+		MappedByteBuffer current;
+		synchronized (this) {
+			current = this.segment;
+		}
+		current.force();
+		this.index.force(false);
+	}
+
+	/**
+	 * Write the games in memory to a new snapshot and replace the last
+	 * snapshot with it. Games may change meanwhile.
+	 */
+	void snapshot() throws IOException {
+		long start;
+		synchronized (this) {
+			start = (long) this.segmentIndex * this.segmentSize + this.segment.position();
+			this.recordsSinceSnapshot = 0;
+		}
+		Path temporary = this.directory.resolve(SNAPSHOT_FILE + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeLong(start);
+			out.writeInt(this.lastGameId());
+			for (Record record : this.records()) {
+				synchronized (record) {
+					if (record.evicted) {
+						continue;
+					}
+					out.writeBoolean(true);
+					out.writeInt(record.gameId);
+					out.writeLong(record.created);
+					out.writeLong(record.sequence);
+					out.writeInt(record.game.getVersion());
+					out.writeInt(record.game.getPosition());
+					writeString(out, record.game.getState());
+					writeString(out, record.game.getPlayerHare());
+					writeString(out, record.game.getPlayerHound());
+					out.writeInt(record.size);
+					for (int i = 0; i < record.size; i++) {
+						out.writeInt(record.positions[i]);
+					}
+				}
+			}
+			out.writeBoolean(false);
+			out.flush();
+			// The records the snapshot holds must be on disk before it is used
+			this.force();
+			channel.force(true);
+		}
+		Files.move(temporary, this.directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Override
+	public void close() {
+		this.flusher.shutdown();
+		try {
+			this.flusher.awaitTermination(10, TimeUnit.SECONDS);
+			this.snapshot();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ex) {
+			this.logger.error("Failed to write a snapshot of the game log", ex);
+		}
+		try {
+			this.index.close();
+		} catch (IOException ex) {
+			this.logger.error("Failed to close the index of the game log", ex);
+		}
+		super.close();
+	}
+
+	private static Game readGame(ByteBuffer buffer) {
+		Game game = new Game();
+		game.setVersion(buffer.getInt());
+		game.setPosition(buffer.getInt());
+		game.setState(readString(buffer));
+		game.setPlayerHare(readString(buffer));
+		game.setPlayerHound(readString(buffer));
+		return game;
+	}
+
+	/**
+	 * @return UTF-8 bytes of a string, null for null
+	 */
+	private static byte[] bytesOf(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read a string written as its length and UTF-8 bytes; null has length
+	 * -1.
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getShort();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = bytesOf(value);
+		out.writeShort(bytes == null ? -1 : bytes.length);
+		if (bytes != null) {
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readShort();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
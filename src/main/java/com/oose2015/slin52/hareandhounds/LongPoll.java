@@ -0,0 +1,112 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spark.Request;
+
+/**
+ * A request answered later, e.g. when a game changes. The request is
+ * suspended with an {@link AsyncContext}, so it holds no request thread
+ * while it waits, and it is answered exactly once: by whoever answers first,
+ * or with the answer for its timeout.
+ * 
+ * A route that suspends its request returns null. Spark then passes the
+ * request on to the static files, which leave it alone, and Jetty does not
+ * touch a suspended response. Answers are written by a small pool of writer
+ * threads, which commit the response before completing it.
+ */
+class LongPoll {
+
+	private static final int WRITER_THREADS = 4;
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "long-poll-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ExecutorService WRITERS = Executors.newFixedThreadPool(WRITER_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "long-poll-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AsyncContext context;
+	private final AtomicBoolean answered = new AtomicBoolean();
+	private final ScheduledFuture<?> timeout;
+	private final Logger logger = LoggerFactory.getLogger(LongPoll.class);
+
+	/**
+	 * Writes the status, headers and body of an answer.
+	 */
+	interface Answer {
+		void write(HttpServletResponse response) throws IOException;
+	}
+
+	/**
+	 * Suspend a request until it is answered.
+	 * 
+	 * @param request
+	 *            the request, whose route must return null
+	 * @param timeoutMillis
+	 *            time after which the request is answered with onTimeout
+	 * @param onTimeout
+	 *            the answer if nobody else answers in time
+	 */
+	LongPoll(Request request, long timeoutMillis, Answer onTimeout) {
+		this.context = request.raw().startAsync();
+		this.context.setTimeout(0);
+		this.timeout = TIMER.schedule(() -> this.answer(onTimeout), timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Answer the request, unless it has been answered already.
+	 * 
+	 * @return false if the request had been answered before
+	 */
+	boolean answer(Answer answer) {
+		if (!this.answered.compareAndSet(false, true)) {
+			return false;
+		}
+		this.timeout.cancel(false);
+		WRITERS.execute(() -> {
+			HttpServletResponse response = (HttpServletResponse) this.context.getResponse();
+			try {
+				answer.write(response);
+				response.flushBuffer();
+			} catch (IOException | RuntimeException ex) {
+				this.logger.debug("Failed to answer a suspended request", ex);
+			} finally {
+				try {
+					this.context.complete();
+				} catch (IllegalStateException alreadyCompleted) {
+					// The client is gone already
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * @return true once the request has been answered
+	 */
+	boolean isAnswered() {
+		return this.answered.get();
+	}
+}
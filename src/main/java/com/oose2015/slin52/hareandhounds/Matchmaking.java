@@ -0,0 +1,241 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/**
+ * Players waiting for an opponent, in one lock-free queue per piece type. A
+ * waiting player is a {@link Ticket}; whoever takes a ticket off a queue
+ * must claim it with a compare-and-set before pairing it, so a seat is
+ * never given to two players, and tickets that are withdrawn or expired
+ * stay in the queue until they are passed over. A ticket put in its queue
+ * again may be in it twice; only one of its entries can be claimed. Nothing
+ * is stored until two players are paired; see
+ * {@link GameService#findMatch(String)}.
+ */
+class Matchmaking {
+
+	/**
+	 * How long a ticket is kept after the last request about it; a waiting
+	 * ticket is not paired any more after that.
+	 */
+	static final long TICKET_TTL_MILLIS = 60 * 1000;
+
+	private static final long SWEEP_INTERVAL_MILLIS = 10 * 1000;
+
+	private static final int WAITING = 0;
+	private static final int CLAIMED = 1;
+	private static final int WITHDRAWN = 2;
+
+	private final ConcurrentLinkedQueue<Ticket> waitingHounds = new ConcurrentLinkedQueue<Ticket>();
+	private final ConcurrentLinkedQueue<Ticket> waitingHares = new ConcurrentLinkedQueue<Ticket>();
+	private final ConcurrentHashMap<String, Ticket> tickets = new ConcurrentHashMap<String, Ticket>();
+	private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "matchmaking-sweeper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * A player looking for an opponent. The match completes with the game
+	 * of the player: {"gameId", "playerId", "pieceType"}.
+	 */
+	static class Ticket {
+		final String ticketId = UUID.randomUUID().toString();
+		final String pieceType;
+		final CompletableFuture<JSONObject> match = new CompletableFuture<JSONObject>();
+		private final AtomicInteger status = new AtomicInteger(WAITING);
+		private volatile long deadline;
+
+		Ticket(String pieceType) {
+			this.pieceType = pieceType;
+			this.deadline = System.currentTimeMillis() + TICKET_TTL_MILLIS;
+		}
+
+		/**
+		 * Take the seat of a waiting player; only one claim ever succeeds.
+		 * 
+		 * @return false if the ticket was claimed or withdrawn before
+		 */
+		private boolean claim() {
+			if (!this.status.compareAndSet(WAITING, CLAIMED)) {
+				return false;
+			}
+			// The owner has time to collect the match
+			this.deadline = System.currentTimeMillis() + TICKET_TTL_MILLIS;
+			return true;
+		}
+
+		private boolean withdraw() {
+			return this.status.compareAndSet(WAITING, WITHDRAWN);
+		}
+
+		private boolean isExpired(long now) {
+			return this.deadline < now;
+		}
+	}
+
+	Matchmaking() {
+		this.sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Claim the longest waiting player of the other piece type. Withdrawn,
+	 * expired and claimed tickets are dropped from the queue on the way.
+	 * 
+	 * @param pieceType
+	 *            piece type of the player looking for an opponent
+	 * @return the claimed ticket, or null if no player is waiting
+	 */
+	Ticket claimOpponent(String pieceType) {
+		ConcurrentLinkedQueue<Ticket> queue = this.opponentsOf(pieceType);
+		long now = System.currentTimeMillis();
+		for (Ticket ticket = queue.poll(); ticket != null; ticket = queue.poll()) {
+			if (ticket.isExpired(now)) {
+				this.withdraw(ticket);
+			} else if (ticket.claim()) {
+				return ticket;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if a player of the other piece type seems to be waiting
+	 */
+	boolean hasOpponent(String pieceType) {
+		ConcurrentLinkedQueue<Ticket> queue = this.opponentsOf(pieceType);
+		long now = System.currentTimeMillis();
+		for (Ticket ticket = queue.peek(); ticket != null; ticket = queue.peek()) {
+			if (this.isWaiting(ticket, now)) {
+				return true;
+			}
+			// Dropping the ticket at the head nobody can claim any more; if
+			// another thread took it meanwhile, the head polled instead may be
+			// a waiting player, who goes back to the end of the queue
+			Ticket head = queue.poll();
+			if (head != ticket && head != null && this.isWaiting(head, now)) {
+				queue.offer(head);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the ticket can be claimed; an expired one is withdrawn,
+	 *         so its owner is not left waiting for it
+	 */
+	private boolean isWaiting(Ticket ticket, long now) {
+		if (ticket.isExpired(now)) {
+			this.withdraw(ticket);
+			return false;
+		}
+		return ticket.status.get() == WAITING;
+	}
+
+	/**
+	 * Put a player in the queue of its piece type to wait for an opponent. A
+	 * ticket the player withdrew before it was handed out waits again.
+	 */
+	void enqueue(Ticket ticket) {
+		this.tickets.put(ticket.ticketId, ticket);
+		this.requeue(ticket);
+	}
+
+	/**
+	 * Put back a claimed or withdrawn player that could not be paired, at the
+	 * end of its queue.
+	 */
+	void requeue(Ticket ticket) {
+		ticket.deadline = System.currentTimeMillis() + TICKET_TTL_MILLIS;
+		ticket.status.set(WAITING);
+		this.queueOf(ticket.pieceType).offer(ticket);
+	}
+
+	/**
+	 * Find a ticket and keep it for another {@link #TICKET_TTL_MILLIS}.
+	 * 
+	 * @return the ticket, or null if there is no such ticket or it has been
+	 *         withdrawn or has expired
+	 */
+	Ticket find(String ticketId) {
+		Ticket ticket = this.tickets.get(ticketId);
+		if (ticket == null || ticket.status.get() == WITHDRAWN) {
+			return null;
+		}
+		ticket.deadline = System.currentTimeMillis() + TICKET_TTL_MILLIS;
+		return ticket;
+	}
+
+	/**
+	 * Stop waiting for an opponent. The ticket stays in its queue until it is
+	 * passed over.
+	 * 
+	 * @return false if the player has already been claimed by an opponent
+	 */
+	boolean withdraw(Ticket ticket) {
+		if (ticket.withdraw()) {
+			this.tickets.remove(ticket.ticketId, ticket);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of players waiting with a piece type, roughly
+	 */
+	int countWaiting(String pieceType) {
+		int count = 0;
+		for (Ticket ticket : this.tickets.values()) {
+			if (ticket.pieceType.equals(pieceType) && ticket.status.get() == WAITING) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Stop expiring tickets.
+	 */
+	void close() {
+		this.sweeper.shutdownNow();
+	}
+
+	/**
+	 * Forget expired tickets and matches nobody collected, and drop dead
+	 * tickets from both queues.
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		for (Ticket ticket : this.tickets.values()) {
+			if (ticket.isExpired(now) && !this.withdraw(ticket) && ticket.match.isDone()) {
+				this.tickets.remove(ticket.ticketId, ticket);
+			}
+		}
+		this.waitingHounds.removeIf(ticket -> ticket.status.get() != WAITING);
+		this.waitingHares.removeIf(ticket -> ticket.status.get() != WAITING);
+	}
+
+	private ConcurrentLinkedQueue<Ticket> queueOf(String pieceType) {
+		return pieceType.equals("HOUND") ? this.waitingHounds : this.waitingHares;
+	}
+
+	private ConcurrentLinkedQueue<Ticket> opponentsOf(String pieceType) {
+		return pieceType.equals("HOUND") ? this.waitingHares : this.waitingHounds;
+	}
+}
@@ -0,0 +1,294 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Games kept in memory only, for tests and benchmarks; everything is lost
+ * when the server stops. Subclasses may write every change down through the
+ * hooks {@link #created(Record)}, {@link #saved(Record, Game, boolean)} and
+ * {@link #appended(Record, int)}, which are called in the order the changes
+ * of a game are applied. A subclass that can read games back may also let
+ * finished games go; see {@link #evict(Record)} and {@link #reload(int)}.
+ */
+class MemoryGameStore implements GameStore {
+
+	private final Map<Integer, Record> records = new ConcurrentHashMap<Integer, Record>();
+	private final AtomicInteger lastGameId = new AtomicInteger();
+
+	/**
+	 * A game and its positions. Guarded by its own monitor.
+	 */
+	class Record {
+		final int gameId;
+		Game game;
+		int[] positions = new int[16];
+		int size;
+
+		/**
+		 * Where a subclass has written the creation and the last change of
+		 * the game down.
+		 */
+		long created;
+		long sequence;
+
+		/**
+		 * True once the record has been let go; it must not change any more.
+		 */
+		boolean evicted;
+
+		Record(int gameId, Game game) {
+			this.gameId = gameId;
+			this.set(game);
+		}
+
+		synchronized Game game() {
+			return new Game(this.game);
+		}
+
+		/**
+		 * Replace the game if the stored game has the version before the
+		 * version of the new one.
+		 */
+		synchronized boolean replace(Game game, boolean appendPosition) {
+			if (this.game.getVersion() != game.getVersion() - 1) {
+				return false;
+			}
+			MemoryGameStore.this.saved(this, game, appendPosition);
+			this.set(game);
+			if (appendPosition) {
+				this.add(game.getPosition());
+			}
+			return true;
+		}
+
+		synchronized boolean append(int position) {
+			MemoryGameStore.this.appended(this, position);
+			this.add(position);
+			return true;
+		}
+
+		synchronized int[] positions() {
+			return Arrays.copyOf(this.positions, this.size);
+		}
+
+		/**
+		 * Keep a copy of a game, without the repetitions counted by the game
+		 * service.
+		 */
+		void set(Game game) {
+			this.game = new Game(game);
+			this.game.setRepetitions(null);
+		}
+
+		void add(int position) {
+			if (this.size == this.positions.length) {
+				this.positions = Arrays.copyOf(this.positions, 2 * this.size);
+			}
+			this.positions[this.size++] = position;
+		}
+	}
+
+	@Override
+	public int create(Game game) {
+		int gameId = this.lastGameId.incrementAndGet();
+		Record record = new Record(gameId, game);
+		synchronized (record) {
+			record.add(game.getPosition());
+			this.created(record);
+			this.records.put(gameId, record);
+		}
+		return gameId;
+	}
+
+	@Override
+	public Game load(int gameId) {
+		Record record = this.findRecord(gameId);
+		return record == null ? null : record.game();
+	}
+
+	@Override
+	public boolean save(int gameId, Game game) {
+		return this.change(gameId, record -> record.replace(game, false));
+	}
+
+	@Override
+	public boolean saveTurn(int gameId, Game game) {
+		return this.change(gameId, record -> record.replace(game, true));
+	}
+
+	@Override
+	public void appendPosition(int gameId, int position) {
+		this.change(gameId, record -> record.append(position));
+	}
+
+	@Override
+	public int[] positions(int gameId) {
+		Record record = this.findRecord(gameId);
+		return record == null ? new int[0] : record.positions();
+	}
+
+	/**
+	 * Change the record of a game, holding its monitor, and let the game go
+	 * if it is finished. A record evicted before the monitor is taken is
+	 * looked up again.
+	 */
+	private boolean change(int gameId, Predicate<Record> change) {
+		while (true) {
+			Record record = this.recordOf(gameId);
+			synchronized (record) {
+				if (!record.evicted) {
+					boolean changed = change.test(record);
+					this.evictIfFinished(record);
+					return changed;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop a finished game from memory if the subclass can read it back.
+	 * Called holding the monitor of the record.
+	 */
+	void evictIfFinished(Record record) {
+		if (record.game.getState().startsWith("WIN_") && this.evict(record)) {
+			record.evicted = true;
+			this.records.remove(record.gameId, record);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.records.clear();
+	}
+
+	/**
+	 * Called when a game has been created, before it can be loaded, holding
+	 * the monitor of its record.
+	 */
+	void created(Record record) {
+	}
+
+	/**
+	 * Called when a game is saved, holding the monitor of its record, before
+	 * the record is changed.
+	 * 
+	 * @param game
+	 *            the game replacing the game of the record
+	 * @param appendPosition
+	 *            true if the position of the game is appended as well
+	 */
+	void saved(Record record, Game game, boolean appendPosition) {
+	}
+
+	/**
+	 * Called when a position is appended, holding the monitor of its record,
+	 * before the record is changed.
+	 */
+	void appended(Record record, int position) {
+	}
+
+	/**
+	 * Called when a game has finished, holding the monitor of its record.
+	 * This store has nowhere else to find the game, so it keeps it.
+	 * 
+	 * @return true if the record may be dropped from memory, because
+	 *         {@link #reload(int)} can read it back
+	 */
+	boolean evict(Record record) {
+		return false;
+	}
+
+	/**
+	 * Read back a game that has been evicted.
+	 * 
+	 * @return a new record of the game, null if there is no such game
+	 */
+	Record reload(int gameId) {
+		return null;
+	}
+
+	/**
+	 * @return the records of the games in memory; they may change while they
+	 *         are read
+	 */
+	Collection<Record> records() {
+		return this.records.values();
+	}
+
+	/**
+	 * Find a game to read it. An evicted game is read back, but not kept in
+	 * memory.
+	 * 
+	 * @return the record of a game, null if there is none
+	 */
+	Record findRecord(int gameId) {
+		Record record = this.records.get(gameId);
+		return record == null ? this.reload(gameId) : record;
+	}
+
+	/**
+	 * Find a game to change it. An evicted game is read back and kept in
+	 * memory again.
+	 * 
+	 * @return the record of a game, null if there is none
+	 */
+	Record findLiveRecord(int gameId) {
+		Record record = this.records.get(gameId);
+		if (record != null) {
+			return record;
+		}
+		Record reloaded = this.reload(gameId);
+		if (reloaded == null) {
+			return null;
+		}
+		record = this.records.putIfAbsent(gameId, reloaded);
+		return record == null ? reloaded : record;
+	}
+
+	/**
+	 * @return the record of a game, kept in memory
+	 * @throws StoreException
+	 *             if there is no game with the id
+	 */
+	Record recordOf(int gameId) {
+		Record record = this.findLiveRecord(gameId);
+		if (record == null) {
+			throw new StoreException("No game with id " + gameId, null);
+		}
+		return record;
+	}
+
+	/**
+	 * Put back a game read from elsewhere, without calling the hooks. Ids of
+	 * created games continue after the largest id restored.
+	 */
+	void restore(Record record) {
+		this.records.put(record.gameId, record);
+		this.reserveGameIds(record.gameId);
+	}
+
+	/**
+	 * @return the largest id given to a game so far
+	 */
+	int lastGameId() {
+		return this.lastGameId.get();
+	}
+
+	/**
+	 * Let the ids of created games continue after a game id, e.g. of a game
+	 * that is not in memory.
+	 */
+	void reserveGameIds(int gameId) {
+		this.lastGameId.accumulateAndGet(gameId, Math::max);
+	}
+}
@@ -0,0 +1,254 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+import spark.HaltException;
+import spark.Route;
+
+/**
+ * Counters and latency histograms of the server, written in the Prometheus
+ * text format. Everything is registered up front, so recording only
+ * increments atomic counters: it takes no lock and allocates nothing.
+ */
+class Metrics {
+
+	private static final String PREFIX = "hareandhounds_";
+
+	/**
+	 * Response codes counted one by one; all others are counted as "other".
+	 */
+	private static final int[] STATUSES = { 200, 201, 202, 304, 400, 404, 409, 410, 422, 500 };
+
+	/**
+	 * Results of a move, see {@link Game#turn(String, int, int, int, int)}.
+	 */
+	private static final String[] TURN_RESULTS = { "SUCCESS", "INVALID_PLAYER_ID", "INCORRECT_TURN",
+			"ILLEGAL_MOVE" };
+
+	private final Map<String, Timer> routes = new ConcurrentHashMap<String, Timer>();
+	private final Map<String, Histogram> queries = new ConcurrentHashMap<String, Histogram>();
+	private final Map<String, LongAdder> turnResults = new LinkedHashMap<String, LongAdder>();
+
+	Metrics() {
+		for (String result : TURN_RESULTS) {
+			this.turnResults.put(result, new LongAdder());
+		}
+	}
+
+	/**
+	 * Wrap a route so its latency and response codes are recorded. A request
+	 * the route has suspended is recorded when it completes, and one the
+	 * route has thrown on with the status Spark answers it with.
+	 * 
+	 * @param name
+	 *            name of the route in the metrics, e.g. "GET /games/:gameId"
+	 * @param route
+	 *            the route to time
+	 */
+	Route timed(String name, Route route) {
+		Timer timer = this.routes.computeIfAbsent(name, key -> new Timer());
+		return (request, response) -> {
+			long start = System.nanoTime();
+			int thrownStatus = 0;
+			try {
+				return route.handle(request, response);
+			} catch (HaltException ex) {
+				thrownStatus = ex.getStatusCode();
+				throw ex;
+			} catch (Exception ex) {
+				// There are no exception handlers, so Spark answers 500
+				thrownStatus = 500;
+				throw ex;
+			} finally {
+				if (request.raw().isAsyncStarted()) {
+					request.raw().getAsyncContext().addListener(new AsyncListener() {
+						@Override
+						public void onComplete(AsyncEvent event) {
+							HttpServletResponse raw = (HttpServletResponse) event.getSuppliedResponse();
+							timer.record(System.nanoTime() - start, raw.getStatus());
+						}
+
+						@Override
+						public void onTimeout(AsyncEvent event) {
+						}
+
+						@Override
+						public void onError(AsyncEvent event) {
+						}
+
+						@Override
+						public void onStartAsync(AsyncEvent event) {
+						}
+					});
+				} else {
+					timer.record(System.nanoTime() - start, thrownStatus != 0 ? thrownStatus : response.raw()
+							.getStatus());
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the histogram of the database work of a GameService method
+	 */
+	Histogram query(String method) {
+		return this.queries.computeIfAbsent(method, key -> new Histogram());
+	}
+
+	/**
+	 * Count the result of a move.
+	 */
+	void countTurnResult(String result) {
+		LongAdder counter = this.turnResults.get(result);
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text format.
+	 * 
+	 * @param gameService
+	 *            the service whose games and cache are reported as well
+	 */
+	String render(GameService gameService) {
+		StringBuilder out = new StringBuilder(16384);
+		header(out, "http_request_duration_seconds", "histogram", "Time to answer a request, by route");
+		for (Map.Entry<String, Timer> entry : this.routes.entrySet()) {
+			entry.getValue().latencies.writeTo(out, "http_request_duration_seconds",
+					"route=\"" + entry.getKey() + "\"");
+		}
+		header(out, "http_responses_total", "counter", "Responses by route and status code");
+		for (Map.Entry<String, Timer> entry : this.routes.entrySet()) {
+			AtomicLongArray statuses = entry.getValue().statuses;
+			for (int i = 0; i <= STATUSES.length; i++) {
+				long count = statuses.get(i);
+				if (count > 0) {
+					sample(out, "http_responses_total", "route=\"" + entry.getKey() + "\",status=\""
+							+ (i < STATUSES.length ? String.valueOf(STATUSES[i]) : "other") + "\"", count);
+				}
+			}
+		}
+		header(out, "turn_results_total", "counter", "Moves by result");
+		for (Map.Entry<String, LongAdder> entry : this.turnResults.entrySet()) {
+			sample(out, "turn_results_total", "result=\"" + entry.getKey() + "\"", entry.getValue().sum());
+		}
+		header(out, "db_duration_seconds", "histogram", "Time spent on the database, by GameService method");
+		for (Map.Entry<String, Histogram> entry : this.queries.entrySet()) {
+			entry.getValue().writeTo(out, "db_duration_seconds", "method=\"" + entry.getKey() + "\"");
+		}
+		header(out, "cached_games", "gauge", "Games in the game cache, by state");
+		for (Map.Entry<String, Integer> entry : gameService.countCachedGames().entrySet()) {
+			sample(out, "cached_games", "state=\"" + entry.getKey() + "\"", entry.getValue());
+		}
+		header(out, "waiting_players", "gauge", "Players waiting for an opponent, by piece type");
+		sample(out, "waiting_players", "pieceType=\"HOUND\"", gameService.countWaitingPlayers("HOUND"));
+		sample(out, "waiting_players", "pieceType=\"HARE\"", gameService.countWaitingPlayers("HARE"));
+		header(out, "game_cache_hits_total", "counter", "Games found in the game cache");
+		sample(out, "game_cache_hits_total", null, gameService.getCacheHits());
+		header(out, "game_cache_misses_total", "counter", "Games read from the database");
+		sample(out, "game_cache_misses_total", null, gameService.getCacheMisses());
+		return out.toString();
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, long value) {
+		out.append(PREFIX).append(name);
+		if (labels != null) {
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Latencies and response codes of a route.
+	 */
+	private static class Timer {
+		private final Histogram latencies = new Histogram();
+		private final AtomicLongArray statuses = new AtomicLongArray(STATUSES.length + 1);
+
+		void record(long nanos, int status) {
+			this.latencies.record(nanos);
+			int i = 0;
+			while (i < STATUSES.length && STATUSES[i] != status) {
+				i++;
+			}
+			this.statuses.incrementAndGet(i);
+		}
+	}
+
+	/**
+	 * Counts of durations in buckets of powers of two, from 16 microseconds
+	 * to 32 seconds.
+	 */
+	static class Histogram {
+		private static final int MIN_EXPONENT = 4;
+		private static final int BUCKETS = 22;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+		private final LongAdder sumNanos = new LongAdder();
+
+		/**
+		 * Count one duration.
+		 */
+		void record(long nanos) {
+			long micros = nanos / 1000;
+			// Smallest exponent of two that is not below the duration
+			int exponent = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+			this.counts.incrementAndGet(Math.min(Math.max(exponent - MIN_EXPONENT, 0), BUCKETS));
+			this.sumNanos.add(nanos);
+		}
+
+		/**
+		 * Count the time passed since a start time.
+		 * 
+		 * @param startNanos
+		 *            start time by {@link System#nanoTime()}
+		 */
+		void recordSince(long startNanos) {
+			this.record(System.nanoTime() - startNanos);
+		}
+
+		/**
+		 * @return number of durations counted so far
+		 */
+		long count() {
+			long count = 0;
+			for (int i = 0; i <= BUCKETS; i++) {
+				count += this.counts.get(i);
+			}
+			return count;
+		}
+
+		void writeTo(StringBuilder out, String name, String labels) {
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulative += this.counts.get(i);
+				double bound = (1L << (i + MIN_EXPONENT)) / 1e6;
+				sample(out, name + "_bucket", labels + ",le=\"" + bound + "\"", cumulative);
+			}
+			cumulative += this.counts.get(BUCKETS);
+			sample(out, name + "_bucket", labels + ",le=\"+Inf\"", cumulative);
+			out.append(PREFIX).append(name).append("_sum{").append(labels).append("} ")
+					.append(this.sumNanos.sum() / 1e9).append('\n');
+			sample(out, name + "_count", labels, cumulative);
+		}
+	}
+}
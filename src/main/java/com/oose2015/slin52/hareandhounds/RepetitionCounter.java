@@ -0,0 +1,97 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.Arrays;
+
+/**
+ * Counts how many times each position key has occurred in a game. Keys are
+ * non-negative ints (see {@link Game#positionKey(int, boolean)}); they are
+ * kept in a small open-addressing table that grows with the game.
+ */
+class RepetitionCounter {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] counts;
+	private int size;
+
+	RepetitionCounter() {
+		this.keys = new int[16];
+		this.counts = new int[16];
+		Arrays.fill(this.keys, EMPTY);
+	}
+
+	/**
+	 * Copy constructor.
+	 */
+	RepetitionCounter(RepetitionCounter other) {
+		this.keys = other.keys.clone();
+		this.counts = other.counts.clone();
+		this.size = other.size;
+	}
+
+	/**
+	 * Count one more occurrence of a key.
+	 * 
+	 * @return number of occurrences of the key so far, including this one
+	 */
+	int increment(int key) {
+		if ((this.size + 1) * 2 > this.keys.length) {
+			this.grow();
+		}
+		int slot = this.slotOf(key);
+		if (this.keys[slot] == EMPTY) {
+			this.keys[slot] = key;
+			this.size++;
+		}
+		return ++this.counts[slot];
+	}
+
+	/**
+	 * @return number of occurrences of a key so far
+	 */
+	int count(int key) {
+		return this.counts[this.slotOf(key)];
+	}
+
+	/**
+	 * Forget all occurrences, keeping the allocated table.
+	 */
+	void clear() {
+		Arrays.fill(this.keys, EMPTY);
+		Arrays.fill(this.counts, 0);
+		this.size = 0;
+	}
+
+	/**
+	 * @return slot holding the key, or the empty slot where it belongs
+	 */
+	private int slotOf(int key) {
+		int mask = this.keys.length - 1;
+		int slot = (key * 0x9E3779B1) >>> 16 & mask;
+		while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		int[] oldKeys = this.keys;
+		int[] oldCounts = this.counts;
+		this.keys = new int[oldKeys.length * 2];
+		this.counts = new int[oldKeys.length * 2];
+		Arrays.fill(this.keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = this.slotOf(oldKeys[i]);
+				this.keys[slot] = oldKeys[i];
+				this.counts[slot] = oldCounts[i];
+			}
+		}
+	}
+}
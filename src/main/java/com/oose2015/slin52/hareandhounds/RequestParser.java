@@ -0,0 +1,341 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of a JSON object straight from the bytes of a request
+ * body, one after the other, for the small fixed requests of the API:
+ * 
+ * <pre>
+ * RequestParser parser = new RequestParser(request.bodyAsBytes());
+ * while (parser.nextField()) {
+ * 	if (parser.fieldIs("fromX")) {
+ * 		fromX = parser.intValue();
+ * 	} else {
+ * 		parser.skipValue();
+ * 	}
+ * }
+ * </pre>
+ * 
+ * A field holding an array of plain values is read element by element with
+ * {@link #nextElement()}. Field names are compared in place and numbers are
+ * read digit by digit, so only string values that are not known in advance
+ * are ever decoded. Names must be plain ASCII without escapes. Anything that is not such an
+ * object is reported as a {@link MalformedRequestException}.
+ */
+class RequestParser {
+
+	private final byte[] body;
+	private int offset;
+
+	// Bounds of the name of the current field, without the quotes
+	private int nameStart;
+	private int nameEnd;
+	private boolean started;
+	private boolean inArray;
+
+	RequestParser(byte[] body) {
+		this.body = body;
+	}
+
+	/**
+	 * Move on to the next field of the object; its value is to be read or
+	 * skipped before the field after it.
+	 * 
+	 * @return false at the end of the object
+	 */
+	boolean nextField() throws MalformedRequestException {
+		if (!this.started) {
+			this.started = true;
+			this.expect('{');
+			if (this.peek() == '}') {
+				this.offset++;
+				return this.end();
+			}
+		} else {
+			byte next = this.next();
+			if (next == '}') {
+				return this.end();
+			} else if (next != ',') {
+				throw this.malformed("expected , or }");
+			}
+		}
+		this.expect('"');
+		this.nameStart = this.offset;
+		while (this.body.length > this.offset && this.body[this.offset] != '"') {
+			if (this.body[this.offset] == '\\') {
+				throw this.malformed("escape in a field name");
+			}
+			this.offset++;
+		}
+		this.nameEnd = this.offset;
+		this.expect('"');
+		this.expect(':');
+		return true;
+	}
+
+	/**
+	 * Move on to the next element of the array that is the value of the
+	 * current field; the element is to be read or skipped before the element
+	 * after it. The first call enters the array.
+	 * 
+	 * @return false at the end of the array
+	 */
+	boolean nextElement() throws MalformedRequestException {
+		if (!this.inArray) {
+			this.expect('[');
+			this.inArray = true;
+			if (this.peek() != ']') {
+				return true;
+			}
+		}
+		byte next = this.next();
+		if (next == ']') {
+			this.inArray = false;
+			return false;
+		} else if (next != ',') {
+			throw this.malformed("expected , or ]");
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the current field has the given ASCII name
+	 */
+	boolean fieldIs(String name) {
+		if (this.nameEnd - this.nameStart != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (this.body[this.nameStart + i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the value of the current field as an integer. A string holding an
+	 * integer is accepted as well.
+	 */
+	int intValue() throws MalformedRequestException {
+		boolean quoted = this.peek() == '"';
+		if (quoted) {
+			this.offset++;
+		}
+		boolean negative = this.offset < this.body.length && this.body[this.offset] == '-';
+		if (negative) {
+			this.offset++;
+		}
+		int start = this.offset;
+		long value = 0;
+		while (this.offset < this.body.length && this.body[this.offset] >= '0' && this.body[this.offset] <= '9') {
+			value = 10 * value + this.body[this.offset++] - '0';
+			if (value > Integer.MAX_VALUE) {
+				throw this.malformed("integer out of range");
+			}
+		}
+		if (this.offset == start) {
+			throw this.malformed("expected an integer");
+		}
+		if (quoted) {
+			this.expect('"');
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Read the value of the current field as a string. If it equals one of
+	 * the known strings, that string is returned without decoding the value.
+	 */
+	String stringValue(String... known) throws MalformedRequestException {
+		this.expect('"');
+		int start = this.offset;
+		boolean escaped = false;
+		while (this.offset < this.body.length && this.body[this.offset] != '"') {
+			if (this.body[this.offset] == '\\') {
+				escaped = true;
+				this.offset++;
+			}
+			this.offset++;
+		}
+		int end = this.offset;
+		this.expect('"');
+		if (!escaped) {
+			for (String string : known) {
+				if (this.isAscii(string, start, end)) {
+					return string;
+				}
+			}
+			return new String(this.body, start, end - start, StandardCharsets.UTF_8);
+		}
+		return this.unescape(start, end);
+	}
+
+	/**
+	 * Skip the value of the current field, whatever it is.
+	 */
+	void skipValue() throws MalformedRequestException {
+		byte first = this.peek();
+		if (first == '"') {
+			this.stringValue();
+		} else if (first == '{' || first == '[') {
+			// Skip to the matching bracket, passing over strings
+			int depth = 0;
+			do {
+				byte next = this.body[this.offset++];
+				if (next == '"') {
+					this.offset--;
+					this.stringValue();
+				} else if (next == '{' || next == '[') {
+					depth++;
+				} else if (next == '}' || next == ']') {
+					depth--;
+				}
+			} while (depth > 0 && this.offset < this.body.length);
+			if (depth > 0) {
+				throw this.malformed("unterminated value");
+			}
+		} else if (first == 't') {
+			this.literal("true");
+		} else if (first == 'f') {
+			this.literal("false");
+		} else if (first == 'n') {
+			this.literal("null");
+		} else {
+			int start = this.offset;
+			while (this.offset < this.body.length && "+-.eE0123456789".indexOf(this.body[this.offset]) >= 0) {
+				this.offset++;
+			}
+			if (this.offset == start) {
+				throw this.malformed("expected a value");
+			}
+		}
+	}
+
+	/**
+	 * Check nothing but white space follows the object.
+	 */
+	private boolean end() throws MalformedRequestException {
+		this.skipWhiteSpace();
+		if (this.offset != this.body.length) {
+			throw this.malformed("content after the object");
+		}
+		return false;
+	}
+
+	private boolean isAscii(String string, int start, int end) {
+		if (end - start != string.length()) {
+			return false;
+		}
+		for (int i = 0; i < string.length(); i++) {
+			if (this.body[start + i] != string.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode a string value with escapes.
+	 */
+	private String unescape(int start, int end) throws MalformedRequestException {
+		String raw = new String(this.body, start, end - start, StandardCharsets.UTF_8);
+		StringBuilder value = new StringBuilder(raw.length());
+		for (int i = 0; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+			char escape = raw.charAt(++i);
+			switch (escape) {
+			case 'b':
+				value.append('\b');
+				break;
+			case 'f':
+				value.append('\f');
+				break;
+			case 'n':
+				value.append('\n');
+				break;
+			case 'r':
+				value.append('\r');
+				break;
+			case 't':
+				value.append('\t');
+				break;
+			case 'u':
+				if (i + 4 >= raw.length()) {
+					throw this.malformed("truncated unicode escape");
+				}
+				try {
+					value.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+				} catch (NumberFormatException ex) {
+					throw this.malformed("invalid unicode escape");
+				}
+				i += 4;
+				break;
+			default:
+				value.append(escape);
+				break;
+			}
+		}
+		return value.toString();
+	}
+
+	private void literal(String literal) throws MalformedRequestException {
+		if (!this.isAscii(literal, this.offset, Math.min(this.offset + literal.length(), this.body.length))) {
+			throw this.malformed("expected " + literal);
+		}
+		this.offset += literal.length();
+	}
+
+	/**
+	 * @return the next byte after white space, without consuming it
+	 */
+	private byte peek() throws MalformedRequestException {
+		this.skipWhiteSpace();
+		if (this.offset >= this.body.length) {
+			throw this.malformed("unexpected end");
+		}
+		return this.body[this.offset];
+	}
+
+	private byte next() throws MalformedRequestException {
+		byte next = this.peek();
+		this.offset++;
+		return next;
+	}
+
+	private void expect(char expected) throws MalformedRequestException {
+		if (this.next() != expected) {
+			throw this.malformed("expected " + expected);
+		}
+	}
+
+	private void skipWhiteSpace() {
+		while (this.offset < this.body.length && (this.body[this.offset] == ' ' || this.body[this.offset] == '\t'
+				|| this.body[this.offset] == '\n' || this.body[this.offset] == '\r')) {
+			this.offset++;
+		}
+	}
+
+	private MalformedRequestException malformed(String problem) {
+		return new MalformedRequestException(String.format("Malformed request at %d: %s", this.offset, problem));
+	}
+
+	/**
+	 * The request body is not a JSON object of the expected shape.
+	 */
+	static class MalformedRequestException extends Exception {
+		MalformedRequestException(String message) {
+			super(message);
+		}
+	}
+}
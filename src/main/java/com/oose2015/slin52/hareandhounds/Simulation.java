@@ -0,0 +1,366 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays many complete games between two simulated players, on all cores,
+ * and reports how they end and how long they last. The games follow the
+ * rules of the server: the moves of {@link Board#destinations(int, int)},
+ * the end of {@link Board#checkHareState(int)} and the stalling rule of
+ * {@link GameService#isStalling(int, Game)}. Positions are played as
+ * integers, so nothing is allocated while a game is played.
+ * 
+ * Arguments: number of games (1000000), the player of the hounds and the
+ * player of the hare ({@link #RANDOM}, {@link #GREEDY} or
+ * {@link #TABLEBASE}; random by default) and the seed of the random
+ * numbers (the current time). The same seed plays the same games.
+ */
+public class Simulation {
+
+	/**
+	 * Names of the players: a random legal move, the move with the best
+	 * static evaluation of {@link ComputerPlayer#evaluate(int, boolean)}, or
+	 * a perfect move from the tablebase. Equally good moves are chosen from
+	 * at random.
+	 */
+	static final String RANDOM = "random";
+	static final String GREEDY = "greedy";
+	static final String TABLEBASE = "tablebase";
+
+	/**
+	 * How games end, by outcome number; the same states a game on the server
+	 * ends in.
+	 */
+	static final String[] OUTCOMES = { "WIN_HOUND", "WIN_HARE_BY_ESCAPE", "WIN_HARE_BY_STALLING" };
+	static final int WIN_HOUND = 0;
+	static final int WIN_HARE_BY_ESCAPE = 1;
+	static final int WIN_HARE_BY_STALLING = 2;
+
+	/**
+	 * Games played by one task of the pool.
+	 */
+	private static final int GAMES_PER_TASK = 1024;
+
+	/**
+	 * More moves than a side can have in any position.
+	 */
+	private static final int MAX_MOVES = 32;
+
+	private static final int START_POSITION = new Board().getPosition();
+
+	/**
+	 * Chooses moves for one side.
+	 */
+	interface Player {
+		/**
+		 * Choose one of the legal moves of the side to move.
+		 * 
+		 * @param moves
+		 *            the legal moves, see {@link ComputerPlayer#fromOf(int)}
+		 *            and {@link ComputerPlayer#toOf(int)}
+		 * @param count
+		 *            number of legal moves, at least one
+		 * @return index of the chosen move in moves
+		 */
+		int choose(int position, boolean hareToMove, int[] moves, int count, SplittableRandom random);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String houndsName = args.length > 1 ? args[1] : RANDOM;
+		String hareName = args.length > 2 ? args[2] : RANDOM;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+		Tablebase tablebase = null;
+		if (houndsName.equals(TABLEBASE) || hareName.equals(TABLEBASE)) {
+			tablebase = Tablebase.open(Paths.get(Bootstrap.TABLEBASE_FILE));
+		}
+		Player hounds = playerOf(houndsName, tablebase);
+		Player hare = playerOf(hareName, tablebase);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		System.out.println(String.format("Playing %d games, hounds %s against hare %s, on %d threads, seed %d", games,
+				houndsName, hareName, threads, seed));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		Statistics statistics = simulate(pool, games, hounds, hare, seed);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.println(String.format("%.2f s, %.0f games/s, %.0f moves/s", seconds, games / seconds,
+				statistics.getPlies() / seconds));
+		System.out.println(String.format("%-24s %12s %8s", "outcome", "games", "share"));
+		for (int outcome = 0; outcome < OUTCOMES.length; outcome++) {
+			System.out.println(String.format("%-24s %12d %7.2f%%", OUTCOMES[outcome], statistics.count(outcome),
+					100.0 * statistics.count(outcome) / games));
+		}
+		System.out.println(String.format("moves per game: mean %.1f, min %d, p50 %d, p90 %d, p99 %d, max %d",
+				(double) statistics.getPlies() / games, statistics.percentile(0), statistics.percentile(0.5),
+				statistics.percentile(0.9), statistics.percentile(0.99), statistics.percentile(1)));
+	}
+
+	/**
+	 * @param tablebase
+	 *            the solved game, only needed by the {@link #TABLEBASE}
+	 *            player
+	 * @throws IllegalArgumentException
+	 *             if there is no player with the name
+	 */
+	static Player playerOf(String name, Tablebase tablebase) {
+		switch (name) {
+		case RANDOM:
+			return (position, hareToMove, moves, count, random) -> random.nextInt(count);
+		case GREEDY:
+			return Simulation::greedyMove;
+		case TABLEBASE:
+			return (position, hareToMove, moves, count, random) -> perfectMove(tablebase, position, hareToMove,
+					moves, count, random);
+		default:
+			throw new IllegalArgumentException("Unknown player: " + name);
+		}
+	}
+
+	/**
+	 * Play games on a pool and add up their results.
+	 * 
+	 * @param seed
+	 *            seed of the random numbers of the players
+	 */
+	static Statistics simulate(ForkJoinPool pool, int games, Player hounds, Player hare, long seed) {
+		return pool.invoke(new Games(games, hounds, hare, new SplittableRandom(seed)));
+	}
+
+	/**
+	 * Plays a number of games, splitting them into tasks of
+	 * {@link #GAMES_PER_TASK} games. Every task plays with random numbers of
+	 * its own, split off in the same order whichever thread runs it.
+	 */
+	private static class Games extends RecursiveTask<Statistics> {
+		private final int games;
+		private final Player hounds;
+		private final Player hare;
+		private final SplittableRandom random;
+
+		Games(int games, Player hounds, Player hare, SplittableRandom random) {
+			this.games = games;
+			this.hounds = hounds;
+			this.hare = hare;
+			this.random = random;
+		}
+
+		@Override
+		protected Statistics compute() {
+			if (this.games <= GAMES_PER_TASK) {
+				Table table = new Table();
+				for (int i = 0; i < this.games; i++) {
+					table.play(this.hounds, this.hare, this.random);
+				}
+				return table.statistics;
+			}
+			Games left = new Games(this.games / 2, this.hounds, this.hare, this.random.split());
+			Games right = new Games(this.games - this.games / 2, this.hounds, this.hare, this.random);
+			left.fork();
+			Statistics statistics = right.compute();
+			statistics.add(left.join());
+			return statistics;
+		}
+	}
+
+	/**
+	 * Where one thread plays its games, one after the other, reusing the
+	 * same repetition counter and move list.
+	 */
+	private static class Table {
+		private final RepetitionCounter repetitions = new RepetitionCounter();
+		private final int[] moves = new int[MAX_MOVES];
+		private final Statistics statistics = new Statistics();
+
+		void play(Player hounds, Player hare, SplittableRandom random) {
+			int position = START_POSITION;
+			boolean hareToMove = false;
+			this.repetitions.clear();
+			this.repetitions.increment(Game.positionKey(position, hareToMove));
+			for (int plies = 0;; plies++) {
+				// Neither side is ever stuck before the hare escapes or is trapped
+				int count = legalMoves(position, hareToMove, this.moves);
+				int move = this.moves[(hareToMove ? hare : hounds).choose(position, hareToMove, this.moves, count,
+						random)];
+				position = Board.move(position, ComputerPlayer.fromOf(move), ComputerPlayer.toOf(move));
+				String hareState = Board.checkHareState(position);
+				if (hareState != null) {
+					this.statistics.record(hareState.equals("WIN_HOUND") ? WIN_HOUND : WIN_HARE_BY_ESCAPE, plies + 1);
+					return;
+				}
+				hareToMove = !hareToMove;
+				if (this.repetitions.increment(Game.positionKey(position, hareToMove)) >= GameService.STALLING_REPETITIONS) {
+					this.statistics.record(WIN_HARE_BY_STALLING, plies + 1);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * List the legal moves of the side to move.
+	 * 
+	 * @return number of moves
+	 */
+	static int legalMoves(int position, boolean hareToMove, int[] moves) {
+		int count = 0;
+		int pieces = hareToMove ? 1 << Board.hareOf(position) : Board.houndsOf(position);
+		while (pieces != 0) {
+			int from = Integer.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+			int destinations = Board.destinations(position, from);
+			while (destinations != 0) {
+				int to = Integer.numberOfTrailingZeros(destinations);
+				destinations &= destinations - 1;
+				moves[count++] = from << 4 | to;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Choose a move that wins at once, or else the move with the best static
+	 * evaluation for the side moving.
+	 */
+	private static int greedyMove(int position, boolean hareToMove, int[] moves, int count, SplittableRandom random) {
+		int best = 0;
+		int bestScore = Integer.MIN_VALUE;
+		int ties = 0;
+		for (int i = 0; i < count; i++) {
+			int next = Board.move(position, ComputerPlayer.fromOf(moves[i]), ComputerPlayer.toOf(moves[i]));
+			String hareState = Board.checkHareState(next);
+			int score;
+			if (hareState != null) {
+				score = hareState.equals("WIN_HOUND") != hareToMove ? Integer.MAX_VALUE : Integer.MIN_VALUE + 1;
+			} else {
+				score = ComputerPlayer.evaluate(next, hareToMove);
+			}
+			if (score > bestScore) {
+				best = i;
+				bestScore = score;
+				ties = 1;
+			} else if (score == bestScore && random.nextInt(++ties) == 0) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Choose a move that keeps the best value of the position: a win as fast
+	 * as possible, a draw, or a loss as late as possible.
+	 */
+	private static int perfectMove(Tablebase tablebase, int position, boolean hareToMove, int[] moves, int count,
+			SplittableRandom random) {
+		int best = 0;
+		int bestScore = Integer.MIN_VALUE;
+		int ties = 0;
+		for (int i = 0; i < count; i++) {
+			int next = Board.move(position, ComputerPlayer.fromOf(moves[i]), ComputerPlayer.toOf(moves[i]));
+			// The entry is for the opponent, who moves next
+			int entry = tablebase.probe(next, !hareToMove);
+			int distance = Tablebase.distanceOf(entry);
+			int score;
+			switch (Tablebase.valueOf(entry)) {
+			case Tablebase.LOSS:
+				score = 2 * Board.POSITION_COUNT - distance;
+				break;
+			case Tablebase.DRAW:
+				score = 0;
+				break;
+			default:
+				score = distance - 2 * Board.POSITION_COUNT;
+				break;
+			}
+			if (score > bestScore) {
+				best = i;
+				bestScore = score;
+				ties = 1;
+			} else if (score == bestScore && random.nextInt(++ties) == 0) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Outcomes and lengths of games, in moves of either side.
+	 */
+	static class Statistics {
+		/**
+		 * Games longer than this are counted as this long in the histogram.
+		 */
+		private static final int MAX_LENGTH = 1023;
+
+		private final long[] outcomes = new long[OUTCOMES.length];
+		private final long[] lengths = new long[MAX_LENGTH + 1];
+		private long games;
+		private long plies;
+
+		void record(int outcome, int length) {
+			this.outcomes[outcome]++;
+			this.lengths[Math.min(length, MAX_LENGTH)]++;
+			this.games++;
+			this.plies += length;
+		}
+
+		void add(Statistics other) {
+			for (int i = 0; i < this.outcomes.length; i++) {
+				this.outcomes[i] += other.outcomes[i];
+			}
+			for (int i = 0; i < this.lengths.length; i++) {
+				this.lengths[i] += other.lengths[i];
+			}
+			this.games += other.games;
+			this.plies += other.plies;
+		}
+
+		/**
+		 * @return number of games with an outcome, see {@link #OUTCOMES}
+		 */
+		long count(int outcome) {
+			return this.outcomes[outcome];
+		}
+
+		long getGames() {
+			return this.games;
+		}
+
+		/**
+		 * @return number of moves of all games
+		 */
+		long getPlies() {
+			return this.plies;
+		}
+
+		/**
+		 * @param fraction
+		 *            between 0 for the shortest and 1 for the longest game
+		 * @return the length of a game that is at least as long as this
+		 *         fraction of all games
+		 */
+		int percentile(double fraction) {
+			long rank = Math.max(1, (long) Math.ceil(fraction * this.games));
+			long seen = 0;
+			for (int length = 0; length < this.lengths.length; length++) {
+				seen += this.lengths[length];
+				if (seen >= rank) {
+					return length;
+				}
+			}
+			return MAX_LENGTH;
+		}
+	}
+}
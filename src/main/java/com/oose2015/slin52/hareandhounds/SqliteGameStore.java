@@ -0,0 +1,529 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.LazyTable;
+import org.sql2o.data.Row;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Games in table "game" and their positions in table "board" of a SQLite
+ * database file. Reads use a pool of connections; all writes go through one
+ * {@link GroupCommitWriter}.
+ * 
+ * Finished games are moved to a {@link GameArchive} next to the database
+ * by a background thread, so the tables only hold the games being played.
+ * The pages they leave behind are returned to the file system if the
+ * database uses incremental vacuum; new databases do, older ones are
+ * converted once by running this class. Games and positions not found in
+ * the tables are looked up in the archive.
+ */
+class SqliteGameStore implements GameStore {
+
+	private static final int POOL_SIZE = 8;
+	private static final int BUSY_TIMEOUT_MILLIS = 5000;
+	private static final int CACHE_SIZE_PAGES = 4000;
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
+	private static final long ARCHIVE_INTERVAL_MILLIS = 10000;
+	private static final int ARCHIVE_BATCH = 1000;
+
+	/**
+	 * Rows copied per batch by {@link #migrateBoardStatus(Connection)}; the
+	 * old tables are read row by row, never all at once.
+	 */
+	private static final int MIGRATE_BATCH = 10000;
+
+	/**
+	 * Rows per INSERT statement of {@link #createAll(Game[])}; SQLite allows
+	 * 999 parameters in a statement.
+	 */
+	private static final int ROWS_PER_INSERT = 100;
+
+	private final ConnectionPool dataSource;
+	private final Sql2o db;
+	private final GroupCommitWriter writer;
+	private final GameArchive archive;
+	private final ScheduledExecutorService archiver;
+	private final Logger logger = LoggerFactory.getLogger(SqliteGameStore.class);
+
+	/**
+	 * Check if the database file exists. If it does create a connection pool
+	 * for the file and return it. If it does not, create a new database file.
+	 * Connections use write-ahead logging, so readers do not block the writer,
+	 * and wait for locks instead of failing.
+	 * 
+	 * @param dbPath
+	 *            path of the database file
+	 * @return connection pool corresponding to the game database
+	 */
+	private static ConnectionPool configureDataSource(Path dbPath) throws SQLException {
+		if (!(Files.exists(dbPath))) {
+			try {
+				Files.createFile(dbPath);
+				System.out.println(">> created the database file");
+			} catch (java.io.IOException ex) {
+				System.err.println(">> Failed to create the database file");
+			}
+		}
+		SQLiteConfig config = new SQLiteConfig();
+		config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+		config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+		config.setBusyTimeout(String.valueOf(BUSY_TIMEOUT_MILLIS));
+		config.setCacheSize(CACHE_SIZE_PAGES);
+		config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+		return new ConnectionPool("jdbc:sqlite:" + dbPath, config, POOL_SIZE);
+	}
+
+	/**
+	 * Convert a database to incremental vacuum, with the server stopped. The
+	 * database file is rebuilt, which takes a while and twice its disk space
+	 * for a large database, so this is not done at startup.
+	 * 
+	 * @param args
+	 *            path of the database file, game.db by default
+	 */
+	public static void main(String[] args) {
+		SqliteGameStore store = new SqliteGameStore(Paths.get(args.length > 0 ? args[0] : GameService.DATABASE_FILE));
+		try {
+			store.enableIncrementalVacuum();
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * Let the database give the pages of deleted rows back to the file system
+	 * on request, rebuilding it if it has tables already.
+	 */
+	void enableIncrementalVacuum() {
+		try (Connection conn = this.db.open()) {
+			if (this.hasIncrementalVacuum(conn)) {
+				this.logger.info("Incremental vacuum of the database is enabled already");
+				return;
+			}
+			this.logger.info("Rebuilding the database to enable incremental vacuum");
+			conn.createQuery("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL).executeUpdate();
+			conn.createQuery("VACUUM").executeUpdate();
+			this.logger.info("Enabled incremental vacuum of the database");
+		} catch (Sql2oException ex) {
+			throw new StoreException("Failed to enable incremental vacuum of the database", ex);
+		}
+	}
+
+	/**
+	 * Enable incremental vacuum for a new, empty database, where that costs
+	 * nothing. For an older database only log how to enable it.
+	 */
+	private void checkIncrementalVacuum() {
+		try (Connection conn = this.db.open()) {
+			if (this.hasIncrementalVacuum(conn)) {
+				return;
+			}
+			boolean empty;
+			try (Query query = conn.createQuery("SELECT count(*) FROM sqlite_master")) {
+				empty = query.executeScalar(Integer.class) == 0;
+			}
+			if (!empty) {
+				this.logger.warn("The database does not use incremental vacuum, so archived games keep their "
+						+ "space; run " + SqliteGameStore.class.getName() + " once with the server stopped");
+				return;
+			}
+			conn.createQuery("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL).executeUpdate();
+			// Writes the setting to the file before any table is created
+			conn.createQuery("VACUUM").executeUpdate();
+		} catch (Sql2oException ex) {
+			throw new StoreException("Failed to enable incremental vacuum of the database", ex);
+		}
+	}
+
+	private boolean hasIncrementalVacuum(Connection conn) {
+		try (Query query = conn.createQuery("PRAGMA auto_vacuum")) {
+			return query.executeScalar(Integer.class) == AUTO_VACUUM_INCREMENTAL;
+		}
+	}
+
+	/**
+	 * Open the database, creating the schema if necessary and migrating
+	 * databases written with board status strings to position integers, and
+	 * the archive next to it.
+	 * 
+	 * @param dbPath
+	 *            path of the database file
+	 */
+	SqliteGameStore(Path dbPath) {
+		try {
+			this.dataSource = configureDataSource(dbPath);
+		} catch (SQLException ex) {
+			throw new StoreException("Failed to open the database at startup", ex);
+		}
+		this.db = new Sql2o(this.dataSource);
+		this.checkIncrementalVacuum();
+		// Create schema
+		try (Connection conn = db.beginTransaction(java.sql.Connection.TRANSACTION_SERIALIZABLE)) {
+			boolean legacy;
+			try (Query query = conn.createQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table' "
+					+ "AND name = 'game' AND sql LIKE '%boardStatus%'")) {
+				legacy = query.executeScalar(Integer.class) > 0;
+			}
+			if (legacy) {
+				conn.createQuery("ALTER TABLE game RENAME TO game_v1").executeUpdate();
+				conn.createQuery("ALTER TABLE board RENAME TO board_v1").executeUpdate();
+			}
+			String sqlGame = "CREATE TABLE IF NOT EXISTS game (gameId INTEGER PRIMARY KEY autoincrement,"
+					+ "state TEXT, position INTEGER, playerHare TEXT, playerHound TEXT, "
+					+ "version INTEGER NOT NULL DEFAULT 0)";
+			String sqlBoard = "CREATE TABLE IF NOT EXISTS board (id INTEGER PRIMARY KEY autoincrement,"
+					+ "gameId INTEGER,	position INTEGER)";
+			conn.createQuery(sqlGame).executeUpdate();
+			conn.createQuery(sqlBoard).executeUpdate();
+			if (legacy) {
+				this.migrateBoardStatus(conn);
+			}
+			boolean versioned;
+			try (Query query = conn.createQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table' "
+					+ "AND name = 'game' AND sql LIKE '%version INTEGER%'")) {
+				versioned = query.executeScalar(Integer.class) > 0;
+			}
+			if (!versioned) {
+				conn.createQuery("ALTER TABLE game ADD COLUMN version INTEGER NOT NULL DEFAULT 0").executeUpdate();
+			}
+			conn.createQuery("CREATE INDEX IF NOT EXISTS board_game ON board (gameId, position)").executeUpdate();
+			conn.createQuery("CREATE INDEX IF NOT EXISTS game_state ON game (state)").executeUpdate();
+			conn.commit();
+		} catch (Sql2oException ex) {
+			this.dataSource.close();
+			throw new StoreException("Failed to create schema at startup", ex);
+		}
+		try {
+			this.archive = new GameArchive(dbPath.resolveSibling(GameArchive.ARCHIVE_FILE));
+		} catch (StoreException ex) {
+			this.dataSource.close();
+			throw ex;
+		}
+		this.writer = new GroupCommitWriter(this.db);
+		this.archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "game-archiver");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.archiver.scheduleWithFixedDelay(this::archiveAll, ARCHIVE_INTERVAL_MILLIS, ARCHIVE_INTERVAL_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Copy the games and boards of a database that stored board status
+	 * strings (tables renamed to game_v1 and board_v1) into the current
+	 * tables, converting every board status to a position integer. The old
+	 * tables are streamed, so their size does not matter.
+	 * 
+	 * @param conn
+	 *            connection with an open transaction
+	 */
+	private void migrateBoardStatus(Connection conn) {
+		Board board = new Board();
+		try (Query selectGame = conn.createQuery("SELECT gameId, state, boardStatus, playerHare, playerHound FROM game_v1");
+				Query insertGame = conn.createQuery("INSERT INTO game (gameId, state, position, playerHare, playerHound) "
+						+ "VALUES (:gameId, :state, :position, :playerHare, :playerHound)");
+				LazyTable games = selectGame.executeAndFetchTableLazy()) {
+			int batched = 0;
+			for (Row row : games.rows()) {
+				board.setStatus(row.getString("boardStatus"));
+				insertGame.addParameter("gameId", row.getInteger("gameId")).addParameter("state", row.getString("state"))
+						.addParameter("position", board.getPosition())
+						.addParameter("playerHare", row.getString("playerHare"))
+						.addParameter("playerHound", row.getString("playerHound")).addToBatch();
+				if (++batched % MIGRATE_BATCH == 0) {
+					insertGame.executeBatch();
+				}
+			}
+			insertGame.executeBatch();
+		}
+
+		try (Query selectBoard = conn.createQuery("SELECT id, gameId, boardStatus FROM board_v1");
+				Query insertBoard = conn.createQuery("INSERT INTO board (id, gameId, position) "
+						+ "VALUES (:id, :gameId, :position)");
+				LazyTable boards = selectBoard.executeAndFetchTableLazy()) {
+			int batched = 0;
+			for (Row row : boards.rows()) {
+				board.setStatus(row.getString("boardStatus"));
+				insertBoard.addParameter("id", row.getInteger("id")).addParameter("gameId", row.getInteger("gameId"))
+						.addParameter("position", board.getPosition()).addToBatch();
+				if (++batched % MIGRATE_BATCH == 0) {
+					insertBoard.executeBatch();
+				}
+			}
+			insertBoard.executeBatch();
+		}
+
+		conn.createQuery("DROP TABLE game_v1").executeUpdate();
+		conn.createQuery("DROP TABLE board_v1").executeUpdate();
+		this.logger.info("Migrated board status strings to position integers");
+	}
+
+	/**
+	 * Insert the game and its first position in one transaction of the
+	 * writer.
+	 */
+	@Override
+	public int create(Game game) {
+		String sql = "INSERT INTO game (state, position, playerHare, playerHound, version) "
+				+ "VALUES (:state, :position, :playerHare, :playerHound, :version)";
+		int[] gameId = new int[1];
+		this.write(conn -> {
+			gameId[0] = conn.createQuery(sql, true).bind(game).executeUpdate().getKey(Integer.class);
+			this.insertBoard(conn, gameId[0], game.getPosition());
+		});
+		return gameId[0];
+	}
+
+	/**
+	 * Insert the games with multi-row INSERT statements in one transaction of
+	 * the writer. Their ids are then selected in the same transaction: every
+	 * id above the largest one before the inserts, in the order the rows were
+	 * inserted, since nothing else inserts games in the transaction.
+	 */
+	@Override
+	public int[] createAll(Game[] games) {
+		int[] gameIds = new int[games.length];
+		this.write(conn -> {
+			int before = conn.createQuery("SELECT coalesce(max(gameId), 0) FROM game").executeScalar(Integer.class);
+			for (int from = 0; from < games.length; from += ROWS_PER_INSERT) {
+				int to = Math.min(from + ROWS_PER_INSERT, games.length);
+				StringBuilder sql = new StringBuilder(
+						"INSERT INTO game (state, position, playerHare, playerHound, version) VALUES ");
+				for (int i = from; i < to; i++) {
+					sql.append(i == from ? "" : ", ").append(String.format(
+							"(:state%1$d, :position%1$d, :playerHare%1$d, :playerHound%1$d, :version%1$d)", i - from));
+				}
+				try (Query query = conn.createQuery(sql.toString())) {
+					for (int i = from; i < to; i++) {
+						query.addParameter("state" + (i - from), games[i].getState())
+								.addParameter("position" + (i - from), games[i].getPosition())
+								.addParameter("playerHare" + (i - from), games[i].getPlayerHare())
+								.addParameter("playerHound" + (i - from), games[i].getPlayerHound())
+								.addParameter("version" + (i - from), games[i].getVersion());
+					}
+					query.executeUpdate();
+				}
+			}
+			List<Integer> inserted = conn.createQuery("SELECT gameId FROM game WHERE gameId > :before ORDER BY gameId")
+					.addParameter("before", before).executeScalarList(Integer.class);
+			if (inserted.size() != games.length) {
+				throw new Sql2oException("Inserted " + games.length + " games, but found " + inserted.size());
+			}
+			for (int i = 0; i < games.length; i++) {
+				gameIds[i] = inserted.get(i);
+			}
+			for (int from = 0; from < games.length; from += ROWS_PER_INSERT) {
+				int to = Math.min(from + ROWS_PER_INSERT, games.length);
+				StringBuilder sql = new StringBuilder("INSERT INTO board (gameId, position) VALUES ");
+				for (int i = from; i < to; i++) {
+					sql.append(i == from ? "" : ", ").append(String.format("(:gameId%1$d, :position%1$d)", i - from));
+				}
+				try (Query query = conn.createQuery(sql.toString())) {
+					for (int i = from; i < to; i++) {
+						query.addParameter("gameId" + (i - from), gameIds[i]).addParameter("position" + (i - from),
+								games[i].getPosition());
+					}
+					query.executeUpdate();
+				}
+			}
+		});
+		return gameIds;
+	}
+
+	@Override
+	public Game load(int gameId) {
+		String sql = "SELECT state, position, playerHare, playerHound, version FROM game WHERE gameId = :gameId ";
+		Game game;
+		try (Connection conn = db.open()) {
+			game = conn.createQuery(sql).addParameter("gameId", gameId).executeAndFetchFirst(Game.class);
+		} catch (Sql2oException ex) {
+			throw new StoreException("Failed to select the game", ex);
+		}
+		return game != null ? game : this.archive.load(gameId);
+	}
+
+	@Override
+	public boolean save(int gameId, Game game) {
+		return this.write(conn -> this.updateGame(conn, game, gameId));
+	}
+
+	@Override
+	public boolean saveTurn(int gameId, Game game) {
+		return this.write(conn -> {
+			this.updateGame(conn, game, gameId);
+			this.insertBoard(conn, gameId, game.getPosition());
+		});
+	}
+
+	@Override
+	public void appendPosition(int gameId, int position) {
+		this.write(conn -> this.insertBoard(conn, gameId, position));
+	}
+
+	@Override
+	public int[] positions(int gameId) {
+		int[] positions;
+		try (Connection conn = db.open()) {
+			positions = this.selectPositions(conn, gameId);
+		} catch (Sql2oException ex) {
+			throw new StoreException("Failed to select the positions of the game", ex);
+		}
+		return positions.length > 0 ? positions : this.archive.positions(gameId);
+	}
+
+	private int[] selectPositions(Connection conn, int gameId) {
+		String sql = "SELECT position FROM board WHERE gameId = :gameId ORDER BY id";
+		List<Integer> positions = conn.createQuery(sql).addParameter("gameId", gameId).executeScalarList(Integer.class);
+		return positions.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	@Override
+	public void close() {
+		this.archiver.shutdown();
+		try {
+			this.archiver.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		this.writer.stop();
+		this.dataSource.close();
+		this.archive.close();
+	}
+
+	/**
+	 * Archive finished games until none are left.
+	 */
+	private void archiveAll() {
+		try {
+			int archived = 0;
+			for (int batch = this.archiveFinishedGames(); batch > 0; batch = this.archiveFinishedGames()) {
+				archived += batch;
+			}
+			if (archived > 0) {
+				this.logger.info("Archived " + archived + " finished games");
+			}
+		} catch (StoreException ex) {
+			this.logger.error("Failed to archive finished games", ex);
+		}
+	}
+
+	/**
+	 * Copy up to {@link #ARCHIVE_BATCH} finished games and their positions to
+	 * the archive, then delete them from the tables and release the pages
+	 * they took. A game is only deleted if it has not changed since it was
+	 * copied. Copying a game again after a crash replaces the copy.
+	 * 
+	 * @return number of games archived
+	 */
+	int archiveFinishedGames() {
+		List<Integer> gameIds = new ArrayList<Integer>();
+		List<Game> games = new ArrayList<Game>();
+		List<int[]> positions = new ArrayList<int[]>();
+		String sql = "SELECT gameId, state, position, playerHare, playerHound, version FROM game "
+				+ "WHERE state LIKE 'WIN%' LIMIT :limit";
+		try (Connection conn = db.beginTransaction(java.sql.Connection.TRANSACTION_SERIALIZABLE)) {
+			for (Row row : conn.createQuery(sql).addParameter("limit", ARCHIVE_BATCH).executeAndFetchTable().rows()) {
+				Game game = new Game();
+				game.setState(row.getString("state"));
+				game.setPosition(row.getInteger("position"));
+				game.setPlayerHare(row.getString("playerHare"));
+				game.setPlayerHound(row.getString("playerHound"));
+				game.setVersion(row.getInteger("version"));
+				gameIds.add(row.getInteger("gameId"));
+				games.add(game);
+				positions.add(this.selectPositions(conn, row.getInteger("gameId")));
+			}
+			conn.commit();
+		} catch (Sql2oException ex) {
+			throw new StoreException("Failed to select the finished games", ex);
+		}
+		if (gameIds.isEmpty()) {
+			return 0;
+		}
+		this.archive.put(gameIds.stream().mapToInt(Integer::intValue).toArray(), games.toArray(new Game[0]),
+				positions.toArray(new int[0][]));
+		this.write(conn -> {
+			String deleteGame = "DELETE FROM game WHERE gameId = :gameId AND version = :version";
+			String deleteBoard = "DELETE FROM board WHERE gameId = :gameId";
+			for (int i = 0; i < gameIds.size(); i++) {
+				int deleted = conn.createQuery(deleteGame).addParameter("gameId", gameIds.get(i))
+						.addParameter("version", games.get(i).getVersion()).executeUpdate().getResult();
+				if (deleted > 0) {
+					conn.createQuery(deleteBoard).addParameter("gameId", gameIds.get(i)).executeUpdate();
+				}
+			}
+			conn.createQuery("PRAGMA incremental_vacuum").executeUpdate();
+		});
+		return gameIds.size();
+	}
+
+	/**
+	 * Commit a write through the group commit writer.
+	 * 
+	 * @return false if the write was rolled back for a version conflict
+	 */
+	private boolean write(GroupCommitWriter.Write write) {
+		try {
+			this.writer.submit(write);
+			return true;
+		} catch (VersionConflict ex) {
+			return false;
+		} catch (Sql2oException ex) {
+			throw new StoreException("Failed to commit the write", ex);
+		}
+	}
+
+	/**
+	 * Update a game if its version in the database is the one before the
+	 * version of the game object.
+	 * 
+	 * @throws VersionConflict
+	 *             if the game has another version in the database
+	 */
+	private void updateGame(Connection conn, Game game, int gameId) {
+		String sql = "UPDATE game SET state = :state, " + "position = :position, playerHare = :playerHare, "
+				+ "playerHound = :playerHound, version = :version WHERE gameId = :gameId AND version = :expected";
+		int updated = conn.createQuery(sql).addParameter("gameId", gameId).bind(game)
+				.addParameter("expected", game.getVersion() - 1).executeUpdate().getResult();
+		if (updated == 0) {
+			throw new VersionConflict();
+		}
+	}
+
+	private void insertBoard(Connection conn, int gameId, int position) {
+		String sql = "INSERT INTO board (gameId, position) VALUES (:gameId, :position)";
+		conn.createQuery(sql).addParameter("gameId", gameId).addParameter("position", position).executeUpdate();
+	}
+
+	/**
+	 * Thrown inside a write when the version of a game does not match; it
+	 * undoes the write, but not the other writes committed with it.
+	 */
+	private static class VersionConflict extends Sql2oException {
+		VersionConflict() {
+			super("Version conflict");
+		}
+	}
+}
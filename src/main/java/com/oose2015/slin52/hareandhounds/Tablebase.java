@@ -0,0 +1,217 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The solved game: the outcome of every position under perfect play, read
+ * from a memory-mapped file. A position and its mirror image share one entry.
+ * 
+ * The file starts with the magic "HHTB", the format version and the number of
+ * canonical positions n; then follow 2n entries of two bytes, first the n
+ * positions with the hounds to move and then the n with the hare to move,
+ * each in ascending order of the canonical position integer. An entry holds
+ * the value for the side to move in its top two bits and the number of plies
+ * to the end of the game in the rest.
+ */
+class Tablebase {
+
+	/**
+	 * The position cannot be won by either side; in a game the hare wins it by
+	 * stalling.
+	 */
+	static final int DRAW = 0;
+
+	/**
+	 * The side to move wins.
+	 */
+	static final int WIN = 1;
+
+	/**
+	 * The side to move loses.
+	 */
+	static final int LOSS = 2;
+
+	/**
+	 * Names of the values, indexed by value.
+	 */
+	static final String[] VALUE_NAMES = { "DRAW", "WIN", "LOSS" };
+
+	private static final int MAGIC = 0x48485442;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = 12;
+	private static final int DISTANCE_MASK = (1 << 14) - 1;
+
+	/**
+	 * Canonical positions in ascending order; the index of a position in this
+	 * array is its rank.
+	 */
+	static final int[] POSITIONS;
+
+	/**
+	 * Rank of the canonical form of every position integer, -1 if the
+	 * position integer is not a position of the game.
+	 */
+	private static final short[] RANK = new short[Board.POSITION_COUNT];
+
+	static {
+		int[] canonical = new int[Board.POSITION_COUNT];
+		int count = 0;
+		for (int hare = 0; hare < Board.VERTEX_COUNT; hare++) {
+			for (int hounds = 0; hounds < 1 << Board.VERTEX_COUNT; hounds++) {
+				if (Integer.bitCount(hounds) == 3 && (hounds & (1 << hare)) == 0) {
+					int position = Board.positionOf(hounds, hare);
+					if (canonical(position) == position) {
+						canonical[count++] = position;
+					}
+				}
+			}
+		}
+		POSITIONS = Arrays.copyOf(canonical, count);
+		Arrays.sort(POSITIONS);
+		Arrays.fill(RANK, (short) -1);
+		for (int rank = 0; rank < POSITIONS.length; rank++) {
+			RANK[POSITIONS[rank]] = (short) rank;
+			RANK[Board.mirror(POSITIONS[rank])] = (short) rank;
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(Tablebase.class);
+
+	private final ByteBuffer entries;
+
+	private Tablebase(ByteBuffer entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Map a tablebase file, solving the game and writing the file first if it
+	 * does not exist.
+	 * 
+	 * @param file
+	 *            path of the tablebase file
+	 */
+	static Tablebase open(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			logger.info("Solving the game into " + file);
+			write(file, TablebaseSolver.solve());
+		}
+		return map(file);
+	}
+
+	/**
+	 * Map an existing tablebase file.
+	 * 
+	 * @param file
+	 *            path of the tablebase file
+	 * @throws IOException
+	 *             if the file cannot be read or is not a tablebase of this
+	 *             board
+	 */
+	static Tablebase map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() != HEADER_BYTES + 4 * POSITIONS.length || buffer.getInt(0) != MAGIC
+					|| buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != POSITIONS.length) {
+				throw new IOException(file + " is not a tablebase of this board");
+			}
+			// The mapping stays valid after the channel is closed
+			return new Tablebase(buffer);
+		}
+	}
+
+	/**
+	 * Write solved entries to a tablebase file. The file is replaced
+	 * atomically, so a server never maps a partly written file.
+	 * 
+	 * @param file
+	 *            path of the tablebase file
+	 * @param entries
+	 *            entries of all canonical positions, hounds to move first
+	 */
+	static void write(Path file, short[] entries) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(POSITIONS.length);
+			for (short entry : entries) {
+				out.writeShort(entry);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Look up a position.
+	 * 
+	 * @param position
+	 *            the board packed into a position integer
+	 * @param hareToMove
+	 *            whether the hare is to move
+	 * @return the entry of the position, -1 if it is not a position of the
+	 *         game
+	 */
+	int probe(int position, boolean hareToMove) {
+		int index = index(position, hareToMove);
+		return index < 0 ? -1 : this.entries.getShort(HEADER_BYTES + 2 * index) & 0xFFFF;
+	}
+
+	/**
+	 * @return the canonical form of a position: the smaller of the position
+	 *         and its mirror image
+	 */
+	static int canonical(int position) {
+		return Math.min(position, Board.mirror(position));
+	}
+
+	/**
+	 * @return index of the entry of a position among all entries, -1 if it
+	 *         is not a position of the game
+	 */
+	static int index(int position, boolean hareToMove) {
+		if (position < 0 || position >= Board.POSITION_COUNT || RANK[position] < 0) {
+			return -1;
+		}
+		return hareToMove ? POSITIONS.length + RANK[position] : RANK[position];
+	}
+
+	/**
+	 * Pack a value and a distance into an entry.
+	 */
+	static short entryOf(int value, int distance) {
+		return (short) (value << 14 | distance);
+	}
+
+	/**
+	 * @return value of an entry for the side to move: {@link #WIN},
+	 *         {@link #LOSS} or {@link #DRAW}
+	 */
+	static int valueOf(int entry) {
+		return (entry & 0xFFFF) >>> 14;
+	}
+
+	/**
+	 * @return number of plies to the end of the game of an entry; 0 for draws
+	 */
+	static int distanceOf(int entry) {
+		return entry & DISTANCE_MASK;
+	}
+}
@@ -0,0 +1,109 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+import java.nio.file.Paths;
+import java.util.stream.IntStream;
+
+/**
+ * Solves the game by retrograde analysis. The outcomes are known at the end
+ * of the game, where the hare has escaped or is trapped; every sweep then
+ * resolves the positions one ply further from the end, until a sweep
+ * resolves nothing. The positions left over are draws: neither side can
+ * force a win, so the hare can play on until it wins by stalling.
+ * 
+ * A sweep only reads the entries of the previous sweeps, so all positions of
+ * a sweep are solved in parallel, and the distances are exact: a won
+ * position is won as fast as possible, a lost one lost as late as possible.
+ */
+class TablebaseSolver {
+
+	/**
+	 * Solve all canonical positions.
+	 * 
+	 * @return entries in the order of the tablebase file, hounds to move first
+	 */
+	static short[] solve() {
+		int count = Tablebase.POSITIONS.length;
+		short[] entries = new short[2 * count];
+		boolean[] solved = new boolean[2 * count];
+		IntStream.range(0, 2 * count).parallel().forEach(index -> {
+			int position = Tablebase.POSITIONS[index % count];
+			boolean hareToMove = index >= count;
+			String hareState = Board.checkHareState(position);
+			if (hareState != null) {
+				// The previous move has ended the game
+				boolean hareWon = hareState.equals("WIN_HARE_BY_ESCAPE");
+				entries[index] = Tablebase.entryOf(hareWon == hareToMove ? Tablebase.WIN : Tablebase.LOSS, 0);
+				solved[index] = true;
+			}
+			// Otherwise both sides have a move, as in the game itself
+		});
+
+		for (int distance = 1;; distance++) {
+			short[] previous = entries.clone();
+			boolean[] previousSolved = solved.clone();
+			int ply = distance;
+			int[] resolved = IntStream.range(0, 2 * count).parallel()
+					.filter(index -> !previousSolved[index] && resolve(index, ply, previous, previousSolved, entries))
+					.toArray();
+			if (resolved.length == 0) {
+				return entries;
+			}
+			for (int index : resolved) {
+				solved[index] = true;
+			}
+		}
+	}
+
+	/**
+	 * Try to solve one position from the entries of the previous sweeps.
+	 * 
+	 * @return true if the position has been solved and its entry written
+	 */
+	private static boolean resolve(int index, int distance, short[] previous, boolean[] previousSolved,
+			short[] entries) {
+		int count = Tablebase.POSITIONS.length;
+		int position = Tablebase.POSITIONS[index % count];
+		boolean hareToMove = index >= count;
+		boolean allWin = true;
+		int pieces = hareToMove ? 1 << Board.hareOf(position) : Board.houndsOf(position);
+		while (pieces != 0) {
+			int from = Integer.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+			int destinations = Board.destinations(position, from);
+			while (destinations != 0) {
+				int to = Integer.numberOfTrailingZeros(destinations);
+				destinations &= destinations - 1;
+				int next = Tablebase.index(Board.move(position, from, to), !hareToMove);
+				if (!previousSolved[next]) {
+					allWin = false;
+				} else if (Tablebase.valueOf(previous[next]) == Tablebase.LOSS) {
+					// A move leaves the opponent lost
+					entries[index] = Tablebase.entryOf(Tablebase.WIN, distance);
+					return true;
+				}
+			}
+		}
+		if (allWin) {
+			// Every move leaves the opponent won
+			entries[index] = Tablebase.entryOf(Tablebase.LOSS, distance);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Solve the game and write the tablebase file.
+	 * 
+	 * @param args
+	 *            path of the file; the default is the file the server maps
+	 */
+	public static void main(String[] args) throws Exception {
+		String file = args.length > 0 ? args[0] : Bootstrap.TABLEBASE_FILE;
+		Tablebase.write(Paths.get(file), solve());
+	}
+}
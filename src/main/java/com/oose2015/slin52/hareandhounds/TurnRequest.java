@@ -0,0 +1,67 @@
+//-------------------------------------------------------------------------------------------------------------//
+// Code based on the ToDoApp from OOSE class
+// https://github.com/jhu-oose/todo
+//-------------------------------------------------------------------------------------------------------------//
+
+package com.oose2015.slin52.hareandhounds;
+
+/**
+ * The body of a move: {"playerId", "fromX", "fromY", "toX", "toY"}.
+ */
+class TurnRequest {
+
+	/**
+	 * Stands for a coordinate missing from the body; {@link RequestParser}
+	 * never reads it.
+	 */
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	final String playerId;
+	final int fromX;
+	final int fromY;
+	final int toX;
+	final int toY;
+
+	private TurnRequest(String playerId, int fromX, int fromY, int toX, int toY) {
+		this.playerId = playerId;
+		this.fromX = fromX;
+		this.fromY = fromY;
+		this.toX = toX;
+		this.toY = toY;
+	}
+
+	/**
+	 * Read a move in a game from a request body. A player id of one of the
+	 * players of the game is not decoded; the id of that player is used.
+	 * 
+	 * @throws RequestParser.MalformedRequestException
+	 *             if the body is no JSON object or lacks a field
+	 */
+	static TurnRequest parse(byte[] body, Game game) throws RequestParser.MalformedRequestException {
+		RequestParser parser = new RequestParser(body);
+		String playerId = null;
+		int fromX = MISSING;
+		int fromY = MISSING;
+		int toX = MISSING;
+		int toY = MISSING;
+		while (parser.nextField()) {
+			if (parser.fieldIs("playerId")) {
+				playerId = parser.stringValue(game.getPlayerHound(), game.getPlayerHare());
+			} else if (parser.fieldIs("fromX")) {
+				fromX = parser.intValue();
+			} else if (parser.fieldIs("fromY")) {
+				fromY = parser.intValue();
+			} else if (parser.fieldIs("toX")) {
+				toX = parser.intValue();
+			} else if (parser.fieldIs("toY")) {
+				toY = parser.intValue();
+			} else {
+				parser.skipValue();
+			}
+		}
+		if (playerId == null || fromX == MISSING || fromY == MISSING || toX == MISSING || toY == MISSING) {
+			throw new RequestParser.MalformedRequestException("Missing field in the move");
+		}
+		return new TurnRequest(playerId, fromX, fromY, toX, toY);
+	}
+}
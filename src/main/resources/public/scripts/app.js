@@ -1,37 +1,36 @@
 var app = (function () {
 
-    /* Fetch the board and update the view */
-    var privateFetchAndUpdateBoard = function () {
-        appModel.fetchBoard()
-            .done(function (data) {
-                boardView.updateBoard(data);
-            }).fail(function (jqXHR) {
-                appView.updateServerResponses('fetching the board data', jqXHR.status, jqXHR.statusText, null);
-            });
-    };
-
-    /* Fetch the state information and update the view */
-    var privateFetchAndUpdateState = function () {
-        appModel.fetchState()
+    /* Fetch the board and state in one snapshot and update the view */
+    var privateUpdateBoardAndState = function () {
+        appModel.fetchGame()
             .done(function (data) {
+                boardView.updateBoard(data.board);
                 appView.updateState(appModel.getGameId(), appModel.getPieceType(), data.state);
             }).fail(function (jqXHR) {
-                appView.updateServerResponses('fetching the game state', jqXHR.status, jqXHR.statusText, null);
+                appView.updateServerResponses('fetching the game', jqXHR.status, jqXHR.statusText, null);
             });
     };
 
-    //Convenience function to fetch and update both board and state
-    var privateUpdateBoardAndState = function () {
-        privateFetchAndUpdateBoard();
-        privateFetchAndUpdateState();
+    //Whether the board and state are pushed by the server
+    var streaming = false;
+
+    /* Follow the game: the server pushes every change, or we poll if the browser cannot receive them */
+    var privateFollowGame = function () {
+        streaming = appModel.listen(function (data) {
+            boardView.updateBoard(data.board);
+            appView.updateState(appModel.getGameId(), appModel.getPieceType(), data.state);
+        });
+        if (!streaming) {
+            privateUpdateBoardAndState();
+            window.setInterval(privateUpdateBoardAndState, 2000);
+        }
     };
 
     /* Start a new game */
     var privateNewGame = function (type) {
         appModel.newGame(type)
             .done(function (data) {
-                privateUpdateBoardAndState();
-                window.setInterval(privateUpdateBoardAndState, 2000);
+                privateFollowGame();
                 appView.clearServerResponses();
             }).fail(function (jqXHR) {
                 appView.updateServerResponses('starting a new game', jqXHR.status, jqXHR.statusText, null);
@@ -42,8 +41,7 @@ var app = (function () {
     var privateJoinGame = function (gameId) {
         appModel.joinGame(gameId)
             .done(function (data) {
-                privateUpdateBoardAndState();
-                window.setInterval(privateUpdateBoardAndState, 2000);
+                privateFollowGame();
                 appView.clearServerResponses();
            }).fail(function (jqXHR) {
                appView.updateServerResponses('joining a game', jqXHR.status, jqXHR.statusText, null);
@@ -54,7 +52,10 @@ var app = (function () {
     var privateMovePiece = function(from, to) {
         appModel.movePiece(from, to)
             .done(function (data) {
-                privateUpdateBoardAndState();
+                // The event stream brings the new board and state
+                if (!streaming) {
+                    privateUpdateBoardAndState();
+                }
                 appView.clearServerResponses();
             }).fail(function (jqXHR) {
                 appView.updateServerResponses('making a move', jqXHR.status, jqXHR.statusText, jqXHR.responseText);
@@ -37,9 +37,10 @@ var appModel = (function () {
          })
     };
 
-    /* Fetch the game state from the server. Returns a deffered object that the control can chain on */
-    var privateFetchState = function() {
-        return $.get('/hareandhounds/api/games/' + state.gameId + '/state', "", null, 'json')
+    /* Fetch the state, board, turn and version of the game in one request.
+       Returns a deffered object that the control can chain on */
+    var privateFetchGame = function() {
+        return $.get('/hareandhounds/api/games/' + state.gameId, "", null, 'json')
             .done(function (data) {
                 state.gameState = data.state;
             }).fail(function (jqXHR) {
@@ -47,12 +48,22 @@ var appModel = (function () {
             });
     };
 
-    /* Fetch the board state from the server. Returns a deffered object that the control can chain on */
-    var privateFetchBoard = function() {
-        return $.get('/hareandhounds/api/games/' + state.gameId + '/board', "", null, 'json')
-            .fail(function (jqXHR) {
-               console.log('Error ' + jqXHR.status);
-            });
+    /* Follow the game through server-sent events. Calls onChange with the state and the board
+       whenever they change; returns false if the browser cannot receive server-sent events */
+    var privateListen = function(onChange) {
+        if (!window.EventSource) {
+            return false;
+        }
+        var source = new EventSource('/hareandhounds/api/games/' + state.gameId + '/events');
+        source.onmessage = function (event) {
+            var data = JSON.parse(event.data);
+            state.gameState = data.state;
+            onChange(data);
+        };
+        source.onerror = function () {
+            console.log('Event stream interrupted, reconnecting');
+        };
+        return true;
     };
 
     /* Move a piece. Returns a deffered object that the control can chain on */
@@ -82,8 +93,8 @@ var appModel = (function () {
         init: function() { },
         newGame: privateNewGame,
         joinGame: privateJoinGame,
-        fetchState: privateFetchState,
-        fetchBoard: privateFetchBoard,
+        fetchGame: privateFetchGame,
+        listen: privateListen,
         movePiece: privateMovePiece
     };
 
@@ -0,0 +1,122 @@
+package com.oose2015.slin52.hareandhounds;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of every GameService method on each game store, with the files
+ * of the store in a temporary directory. findGame and isStalling are served
+ * from memory once the game is cached, so loadGame and countRepetitions
+ * measure the same reads on the store itself.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GameServiceBenchmark {
+
+	@Param({ GameStore.SQLITE, GameStore.LOG, GameStore.MEMORY })
+	public String store;
+
+	private Path directory;
+	private GameStore gameStore;
+	private GameService gameService;
+	private int gameId;
+	private Game game;
+
+	@Setup
+	public void setup() throws Exception {
+		this.directory = Files.createTempDirectory("hareandhounds");
+		this.gameStore = GameStore.open(this.store, this.directory);
+		this.gameService = new GameService(this.gameStore, new Metrics());
+		this.gameId = this.gameService.newGame("HOUND").getInt("gameId");
+		this.game = this.gameService.findGameToChange(this.gameId);
+		this.game.join("player2");
+		this.gameService.updateGame(this.game, this.gameId);
+	}
+
+	@TearDown
+	public void clean() throws Exception {
+		this.gameService.close();
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Benchmark
+	public JSONObject newGame() throws Exception {
+		return this.gameService.newGame("HARE");
+	}
+
+	/**
+	 * A copy of the game without its repetitions, made before every call, so
+	 * isStalling counts the positions of the game in the store.
+	 */
+	@State(Scope.Thread)
+	public static class Uncounted {
+		private Game game;
+
+		@Setup(Level.Invocation)
+		public void forgetRepetitions(GameServiceBenchmark benchmark) {
+			this.game = new Game(benchmark.game);
+			this.game.setRepetitions(null);
+		}
+	}
+
+	@Benchmark
+	public Game findGame() throws Exception {
+		return this.gameService.findGame(this.gameId);
+	}
+
+	@Benchmark
+	public Game loadGame() {
+		return this.gameStore.load(this.gameId);
+	}
+
+	@Benchmark
+	public void updateGame() throws Exception {
+		this.gameService.updateGame(this.game, this.gameId);
+	}
+
+	@Benchmark
+	public void commitTurn() throws Exception {
+		this.gameService.commitTurn(this.gameId, this.game);
+	}
+
+	@Benchmark
+	public void insertBoard() throws Exception {
+		this.gameService.insertBoard(this.gameId, this.game.getPosition());
+	}
+
+	@Benchmark
+	public boolean isStalling() throws Exception {
+		return this.gameService.isStalling(this.gameId, this.game);
+	}
+
+	@Benchmark
+	public boolean countRepetitions(Uncounted uncounted) throws Exception {
+		return this.gameService.isStalling(this.gameId, uncounted.game);
+	}
+}
@@ -0,0 +1,264 @@
+package com.oose2015.slin52.hareandhounds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import spark.Spark;
+import spark.utils.IOUtils;
+
+/**
+ * Plays many games against a server started from {@link Bootstrap}, the way
+ * browsers do: both players of every game poll the board and the state
+ * every two seconds and make a random legal move after thinking for a
+ * while. A finished game is replaced by a new one, so the load stays the
+ * same until the end. Reports the throughput, the latency percentiles and
+ * the response codes of every endpoint.
+ * 
+ * Arguments: number of concurrent games (1000), duration in seconds (60)
+ * and number of client threads (256). The games are written to the
+ * database of the server in the current directory.
+ */
+public class LoadGenerator {
+
+	private static final String API = "/hareandhounds/api/";
+	private static final long POLL_MILLIS = 2000;
+	private static final long MIN_THINK_MILLIS = 500;
+	private static final long MAX_THINK_MILLIS = 3000;
+	private static final long RAMP_UP_MILLIS = 10000;
+
+	private final ScheduledExecutorService clients;
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+	private volatile boolean running = true;
+
+	LoadGenerator(int threads) {
+		this.clients = Executors.newScheduledThreadPool(threads);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+		Bootstrap.main(null);
+		Spark.awaitInitialization();
+
+		LoadGenerator generator = new LoadGenerator(threads);
+		System.out.println(String.format("Playing %d games for %d s on %d threads", games, seconds, threads));
+		for (int i = 0; i < games; i++) {
+			long delay = ThreadLocalRandom.current().nextLong(RAMP_UP_MILLIS);
+			generator.clients.schedule(generator::startGame, delay, TimeUnit.MILLISECONDS);
+		}
+		Thread.sleep(seconds * 1000L);
+		generator.running = false;
+		generator.clients.shutdownNow();
+		generator.clients.awaitTermination(10, TimeUnit.SECONDS);
+		generator.report(seconds);
+
+		Bootstrap.stop();
+		System.exit(0);
+	}
+
+	/**
+	 * Create a game, join it and start polling and playing.
+	 */
+	private void startGame() {
+		String created = this.send("POST /games", "POST", "games", "{\"pieceType\": \"HOUND\"}");
+		if (created == null) {
+			this.later(this::startGame, POLL_MILLIS);
+			return;
+		}
+		int gameId = new JSONObject(created).getInt("gameId");
+		this.send("PUT /games/:id", "PUT", "games/" + gameId, null);
+		PlayedGame game = new PlayedGame(gameId);
+		// Two browsers follow the game
+		this.later(() -> this.poll(game), ThreadLocalRandom.current().nextLong(POLL_MILLIS));
+		this.later(() -> this.poll(game), ThreadLocalRandom.current().nextLong(POLL_MILLIS));
+		this.later(() -> this.move(game), this.thinkTime());
+	}
+
+	private void poll(PlayedGame game) {
+		if (game.over) {
+			return;
+		}
+		this.send("GET /games/:id/board", "GET", "games/" + game.id + "/board", null);
+		this.send("GET /games/:id/state", "GET", "games/" + game.id + "/state", null);
+		this.later(() -> this.poll(game), POLL_MILLIS);
+	}
+
+	/**
+	 * Make a random legal move for the side to move, or replace the game if
+	 * it is over.
+	 */
+	private void move(PlayedGame game) {
+		String body = this.send("GET /games/:id/moves", "GET", "games/" + game.id + "/moves", null);
+		if (body == null) {
+			this.later(() -> this.move(game), this.thinkTime());
+			return;
+		}
+		JSONObject legal = new JSONObject(body);
+		JSONArray moves = legal.getJSONArray("moves");
+		if (moves.length() == 0) {
+			game.over = true;
+			this.startGame();
+			return;
+		}
+		JSONObject move = moves.getJSONObject(ThreadLocalRandom.current().nextInt(moves.length()));
+		move.put("playerId", legal.getString("turn").equals("HOUND") ? "player1" : "player2");
+		this.send("POST /games/:id/turns", "POST", "games/" + game.id + "/turns", move.toString());
+		this.later(() -> this.move(game), this.thinkTime());
+	}
+
+	private long thinkTime() {
+		return ThreadLocalRandom.current().nextLong(MIN_THINK_MILLIS, MAX_THINK_MILLIS);
+	}
+
+	private void later(Runnable task, long delayMillis) {
+		if (this.running) {
+			this.clients.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Send a request and record its latency and response code.
+	 * 
+	 * @return the response body if the request succeeded, otherwise null
+	 */
+	private String send(String endpoint, String method, String path, String body) {
+		long start = System.nanoTime();
+		int status;
+		String response = null;
+		try {
+			URL url = new URL("http", Bootstrap.IP_ADDRESS, Bootstrap.PORT, API + path);
+			HttpURLConnection http = (HttpURLConnection) url.openConnection();
+			http.setRequestMethod(method);
+			if (body != null) {
+				http.setDoOutput(true);
+				http.setRequestProperty("Content-Type", "application/json");
+				try (OutputStream out = http.getOutputStream()) {
+					out.write(body.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			status = http.getResponseCode();
+			// Read the whole body, so the connection is kept alive
+			InputStream in = status < 400 ? http.getInputStream() : http.getErrorStream();
+			if (in != null) {
+				try (InputStream stream = in) {
+					response = IOUtils.toString(stream);
+				}
+			}
+		} catch (IOException ex) {
+			status = -1;
+		}
+		this.endpoints.computeIfAbsent(endpoint, name -> new Endpoint()).record(System.nanoTime() - start, status);
+		return status >= 200 && status < 300 ? response : null;
+	}
+
+	private void report(int seconds) {
+		System.out.println(String.format("%-24s %9s %9s %9s %9s %9s %9s  %s", "endpoint", "requests", "req/s",
+				"p50 ms", "p99 ms", "p99.9 ms", "max ms", "responses"));
+		for (Map.Entry<String, Endpoint> entry : new TreeMap<String, Endpoint>(this.endpoints).entrySet()) {
+			Endpoint endpoint = entry.getValue();
+			long count = endpoint.latencies.count();
+			Map<Integer, Long> statuses = new TreeMap<Integer, Long>();
+			endpoint.statuses.forEach((status, adder) -> statuses.put(status, adder.sum()));
+			System.out.println(String.format("%-24s %9d %9.1f %9.2f %9.2f %9.2f %9.2f  %s", entry.getKey(), count,
+					(double) count / seconds, endpoint.latencies.percentile(0.5) / 1000.0,
+					endpoint.latencies.percentile(0.99) / 1000.0, endpoint.latencies.percentile(0.999) / 1000.0,
+					endpoint.latencies.percentile(1.0) / 1000.0, statuses));
+		}
+	}
+
+	/**
+	 * A game played by the generator.
+	 */
+	private static class PlayedGame {
+		private final int id;
+		private volatile boolean over;
+
+		PlayedGame(int id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Latencies and response codes of one endpoint; -1 counts requests that
+	 * failed without a response.
+	 */
+	private static class Endpoint {
+		private final Histogram latencies = new Histogram();
+		private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<Integer, LongAdder>();
+
+		void record(long nanos, int status) {
+			this.latencies.record(nanos / 1000);
+			this.statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+		}
+	}
+
+	/**
+	 * Counts of values in logarithmic buckets: 16 buckets for every power of
+	 * two, so a percentile is off by at most 1/16.
+	 */
+	private static class Histogram {
+		private static final int SUB_BUCKETS = 16;
+		private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+		void record(long value) {
+			this.counts.incrementAndGet(bucketOf(Math.max(value, 0)));
+		}
+
+		long count() {
+			long count = 0;
+			for (int i = 0; i < this.counts.length(); i++) {
+				count += this.counts.get(i);
+			}
+			return count;
+		}
+
+		/**
+		 * @return upper bound of the bucket holding the given quantile
+		 */
+		long percentile(double quantile) {
+			long rank = (long) Math.ceil(quantile * this.count());
+			long seen = 0;
+			for (int i = 0; i < this.counts.length(); i++) {
+				seen += this.counts.get(i);
+				if (seen >= rank && seen > 0) {
+					return lowerBoundOf(i + 1) - 1;
+				}
+			}
+			return 0;
+		}
+
+		private static int bucketOf(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			return (exponent - 3) * SUB_BUCKETS + (int) (value >>> (exponent - 4) & (SUB_BUCKETS - 1));
+		}
+
+		private static long lowerBoundOf(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int exponent = bucket / SUB_BUCKETS + 3;
+			return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 4);
+		}
+	}
+}
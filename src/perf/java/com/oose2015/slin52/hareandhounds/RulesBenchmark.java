@@ -0,0 +1,81 @@
+package com.oose2015.slin52.hareandhounds;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the game rules, without any database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RulesBenchmark {
+
+	private Game game;
+	private Board board;
+	private String status;
+
+	@Setup
+	public void setup() {
+		this.game = new Game();
+		this.game.join("HOUND", "player1");
+		this.game.join("player2");
+		// The hare moves back and forth, so the game never ends
+		this.game.setState("TURN_HARE");
+		this.board = new Board();
+		this.board.setPieceTypeByXY(0, 1, "NULL");
+		this.board.setPieceTypeByXY(1, 1, "HOUND");
+		this.status = this.board.getStatus();
+	}
+
+	@Benchmark
+	public void turn(Blackhole blackhole) {
+		blackhole.consume(this.game.turn("player2", 4, 1, 3, 1));
+		blackhole.consume(this.game.turn("player2", 3, 1, 4, 1));
+	}
+
+	@Benchmark
+	public void illegalTurn(Blackhole blackhole) {
+		blackhole.consume(this.game.turn("player2", 4, 1, 2, 1));
+	}
+
+	@Benchmark
+	public void setStatus() {
+		this.board.setStatus(this.status);
+	}
+
+	@Benchmark
+	public String getStatus() {
+		return this.board.getStatus();
+	}
+
+	@Benchmark
+	public void isAdjacent(Blackhole blackhole) {
+		blackhole.consume(this.board.isAdjacent(1, 0, 2, 1));
+		blackhole.consume(this.board.isAdjacent(1, 1, 2, 2));
+	}
+
+	@Benchmark
+	public String checkHareState() {
+		return this.board.checkHareState();
+	}
+
+	@Benchmark
+	public String getBoardDescrition() {
+		return this.game.getBoardDescrition();
+	}
+}
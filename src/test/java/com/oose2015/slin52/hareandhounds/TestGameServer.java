@@ -2,9 +2,10 @@ package com.oose2015.slin52.hareandhounds;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -18,21 +19,21 @@ import org.junit.*;
 
 import org.sqlite.SQLiteDataSource;
 
-import com.google.gson.Gson;
-
 import spark.Spark;
 import spark.utils.IOUtils;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestGameServer {
 
 	@Before
 	public void setup() throws Exception {
 		// Delete the database file
-		Path dbPath = Paths.get(".", "game.db");
-		if (Files.exists(dbPath)) {
-			Files.delete(dbPath);
-		}
+		deleteDatabase();
 
 		// Start the main server
 		Bootstrap.main(null);
@@ -42,14 +43,22 @@ public class TestGameServer {
 
 	@After
 	public void clean() throws Exception {
+		// Stop the spark server and close the database
+		Bootstrap.stop();
+
 		// Delete the database file
-		Path dbPath = Paths.get(".", "game.db");
-		if (Files.exists(dbPath)) {
-			Files.delete(dbPath);
-		}
+		deleteDatabase();
+	}
 
-		// Stop the spark server
-		Spark.stop();
+	static void deleteDatabase() throws IOException {
+		// The write-ahead log and its index live next to the database file
+		for (String name : new String[] { "game.db", "game.db-wal", "game.db-shm", "game-archive.db",
+				"game-archive.db-wal", "game-archive.db-shm" }) {
+			Path dbPath = Paths.get(".", name);
+			if (Files.exists(dbPath)) {
+				Files.delete(dbPath);
+			}
+		}
 	}
 
 	@Test
@@ -87,6 +96,20 @@ public class TestGameServer {
 		Board board = new Board();
 		assertEquals(board.toString(), this.getBoard(gameId));
 
+		// The hounds have seven legal moves at the start
+		Response resMoves = request("GET", "games/" + gameId + "/moves", null);
+		assertEquals(200, resMoves.httpStatus);
+		assertEquals("HOUND", new JSONObject(resMoves.content).getString("turn"));
+		assertEquals(7, new JSONObject(resMoves.content).getJSONArray("moves").length());
+
+		// The hounds win the start position with perfect play
+		Response resEvaluation = request("GET", "games/" + gameId + "/evaluation", null);
+		assertEquals(200, resEvaluation.httpStatus);
+		JSONObject evaluation = new JSONObject(resEvaluation.content);
+		assertEquals("HOUND", evaluation.getString("turn"));
+		assertEquals("WIN", evaluation.getString("value"));
+		assertTrue(evaluation.getInt("plies") > 0);
+
 		/**
 		 * Test playing a game
 		 */
@@ -97,6 +120,14 @@ public class TestGameServer {
 		// Wrong playerId
 		assertEquals(404, turn(gameId, "foobar", 0, 1, 2, 1));
 
+		// Malformed moves
+		String path = "games/" + gameId + "/turns";
+		assertEquals(400, request("POST", path, "{\"playerId\": \"" + playerHound + "\", \"fromX\": 0}").httpStatus);
+		assertEquals(400, request("POST", path, "{\"playerId\": 1, \"fromX\": 0, \"fromY\": 1}").httpStatus);
+		assertEquals(400, request("POST", path, "[0, 1, 1, 1]").httpStatus);
+		assertEquals(400, request("POST", "games", "{\"piece\": \"HOUND\"}").httpStatus);
+		assertEquals("TURN_HOUND", this.getState(gameId));
+
 		// Hare moves first mistakenly.
 		assertEquals(422, turn(gameId, playerHare, 4, 1, 3, 1));
 
@@ -112,6 +143,349 @@ public class TestGameServer {
 		board.setPieceTypeByXY(1, 1, "HOUND");
 		assertEquals(board.toString(), this.getBoard(gameId));
 
+		// The snapshot holds state, turn, board and version together
+		Response resSnapshot = request("GET", "games/" + gameId, null);
+		assertEquals(200, resSnapshot.httpStatus);
+		JSONObject snapshot = new JSONObject(resSnapshot.content);
+		assertEquals("TURN_HARE", snapshot.getString("state"));
+		assertEquals("HARE", snapshot.getString("turn"));
+		assertEquals(board.toString(), snapshot.getJSONArray("board").toString());
+		assertEquals(2, snapshot.getInt("version"));
+		assertEquals(404, request("GET", "games/129", null).httpStatus);
+
+	}
+
+	@Test
+	public void testBatchCreate() throws Exception {
+		JSONObject content = new JSONObject();
+		content.put("pieceTypes", new JSONArray().put("HOUND").put("HARE").put("HOUND"));
+		Response resStart = request("POST", "games/batch", content.toString());
+		assertEquals(201, resStart.httpStatus);
+		JSONArray games = new JSONObject(resStart.content).getJSONArray("games");
+		assertEquals(3, games.length());
+		for (int i = 0; i < games.length(); i++) {
+			JSONObject game = games.getJSONObject(i);
+			assertEquals(i + 1, game.getInt("gameId"));
+			assertEquals("player1", game.getString("playerId"));
+			assertEquals(i == 1 ? "HARE" : "HOUND", game.getString("pieceType"));
+			assertEquals("WAITING_FOR_SECOND_PLAYER", this.getState(game.getInt("gameId")));
+			// Boards of the same position are described alike
+			assertEquals(new Board().toString(), this.getBoard(game.getInt("gameId")));
+		}
+
+		// The games are played like games started one by one
+		Response resJoin = request("PUT", "games/2", null);
+		assertEquals(200, resJoin.httpStatus);
+		assertEquals("HOUND", new JSONObject(resJoin.content).getString("pieceType"));
+		assertEquals(200, turn(2, "player2", 0, 1, 1, 1));
+
+		// Nothing is created if a piece type is invalid
+		content.put("pieceTypes", new JSONArray().put("HOUND").put("FOX"));
+		assertEquals(404, request("POST", "games/batch", content.toString()).httpStatus);
+		assertEquals(400, request("POST", "games/batch", "{\"pieceTypes\": []}").httpStatus);
+		assertEquals(400, request("POST", "games/batch", "{}").httpStatus);
+		assertEquals(404, request("PUT", "games/4", null).httpStatus);
+	}
+
+	@Test
+	public void testMatchmaking() throws Exception {
+		// The first player waits for an opponent
+		Response resHare = request("POST", "matchmaking", "{\"pieceType\": \"HARE\"}");
+		assertEquals(202, resHare.httpStatus);
+		String ticketId = new JSONObject(resHare.content).getString("ticketId");
+		assertEquals(202, request("GET", "matchmaking/" + ticketId, null).httpStatus);
+
+		// The second one is paired right away, and both play the same game
+		Response resHound = request("POST", "matchmaking?wait=1", "{\"pieceType\": \"HOUND\"}");
+		assertEquals(201, resHound.httpStatus);
+		JSONObject houndGame = new JSONObject(resHound.content);
+		assertEquals("player2", houndGame.getString("playerId"));
+		assertEquals("HOUND", houndGame.getString("pieceType"));
+		Response resMatch = request("GET", "matchmaking/" + ticketId, null);
+		assertEquals(200, resMatch.httpStatus);
+		JSONObject hareGame = new JSONObject(resMatch.content);
+		assertEquals(houndGame.getInt("gameId"), hareGame.getInt("gameId"));
+		assertEquals("player1", hareGame.getString("playerId"));
+		assertEquals("HARE", hareGame.getString("pieceType"));
+		int gameId = hareGame.getInt("gameId");
+		assertEquals("TURN_HOUND", this.getState(gameId));
+		assertEquals(410, request("PUT", "games/" + gameId, null).httpStatus);
+		assertEquals(200, turn(gameId, "player2", 0, 1, 1, 1));
+		assertEquals(410, request("DELETE", "matchmaking/" + ticketId, null).httpStatus);
+
+		// Long polling until an opponent comes
+		String waitingId = new JSONObject(request("POST", "matchmaking", "{\"pieceType\": \"HOUND\"}").content)
+				.getString("ticketId");
+		Thread opponent = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			request("POST", "matchmaking", "{\"pieceType\": \"HARE\"}");
+		});
+		opponent.start();
+		Response resWait = request("GET", "matchmaking/" + waitingId + "?wait=5", null);
+		opponent.join();
+		assertEquals(200, resWait.httpStatus);
+		assertEquals("player1", new JSONObject(resWait.content).getString("playerId"));
+
+		// A player may stop waiting
+		String leavingId = new JSONObject(request("POST", "matchmaking", "{\"pieceType\": \"HOUND\"}").content)
+				.getString("ticketId");
+		assertEquals(200, request("DELETE", "matchmaking/" + leavingId, null).httpStatus);
+		assertEquals(404, request("DELETE", "matchmaking/" + leavingId, null).httpStatus);
+		assertEquals(404, request("GET", "matchmaking/" + leavingId, null).httpStatus);
+		assertEquals(202, request("POST", "matchmaking", "{\"pieceType\": \"HARE\"}").httpStatus);
+
+		assertEquals(404, request("POST", "matchmaking", "{\"pieceType\": \"FOX\"}").httpStatus);
+		assertEquals(400, request("POST", "matchmaking", "{}").httpStatus);
+	}
+
+	@Test
+	public void testEvents() throws Exception {
+		// Start and join a game
+		JSONObject content = new JSONObject();
+		content.put("pieceType", "HOUND");
+		Response resStart = request("POST", "games", content.toString());
+		int gameId = new JSONObject(resStart.content).getInt("gameId");
+		String playerHound = new JSONObject(resStart.content).getString("playerId");
+		request("PUT", "games/" + gameId, null);
+
+		// Subscribe to the events of an invalid game
+		HttpURLConnection invalid = (HttpURLConnection) new URL("http", Bootstrap.IP_ADDRESS, Bootstrap.PORT,
+				"/hareandhounds/api/games/129/events").openConnection();
+		assertEquals(404, invalid.getResponseCode());
+
+		// Subscribe to the events of the game
+		URL url = new URL("http", Bootstrap.IP_ADDRESS, Bootstrap.PORT, "/hareandhounds/api/games/" + gameId + "/events");
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+		http.setReadTimeout(5000);
+		assertEquals(200, http.getResponseCode());
+		assertTrue(http.getContentType().startsWith("text/event-stream"));
+		BufferedReader events = new BufferedReader(new InputStreamReader(http.getInputStream(), "UTF-8"));
+
+		// The current state comes first
+		JSONObject event = this.nextEvent(events);
+		assertEquals("TURN_HOUND", event.getString("state"));
+		assertEquals(new Board().toString(), event.getJSONArray("board").toString());
+
+		// A move is pushed to the stream
+		assertEquals(200, turn(gameId, playerHound, 0, 1, 1, 1));
+		event = this.nextEvent(events);
+		assertEquals("TURN_HARE", event.getString("state"));
+		assertEquals(this.getBoard(gameId), event.getJSONArray("board").toString());
+
+		// A later stream starts with the game after the move
+		HttpURLConnection later = (HttpURLConnection) url.openConnection();
+		later.setReadTimeout(5000);
+		assertEquals(200, later.getResponseCode());
+		event = this.nextEvent(new BufferedReader(new InputStreamReader(later.getInputStream(), "UTF-8")));
+		assertEquals("TURN_HARE", event.getString("state"));
+		later.disconnect();
+		http.disconnect();
+	}
+
+	@Test
+	public void testComputerOpponent() throws Exception {
+		// Play the hare against the computer, which moves first as the hounds
+		JSONObject content = new JSONObject();
+		content.put("pieceType", "HARE");
+		content.put("opponent", "COMPUTER");
+		content.put("strength", 2);
+		Response resStart = request("POST", "games", content.toString());
+		assertEquals(201, resStart.httpStatus);
+		int gameId = new JSONObject(resStart.content).getInt("gameId");
+		String playerHare = new JSONObject(resStart.content).getString("playerId");
+
+		// Wait for the computer's move
+		JSONObject snapshot = this.awaitTurn(gameId, "HARE");
+		assertEquals(2, snapshot.getInt("version"));
+		assertNotEquals(new Board().toString(), snapshot.getJSONArray("board").toString());
+
+		// The computer answers a move of the hare
+		assertEquals(200, turn(gameId, playerHare, 4, 1, 3, 1));
+		snapshot = this.awaitTurn(gameId, "HARE");
+		assertEquals(4, snapshot.getInt("version"));
+	}
+
+	/**
+	 * Long-poll the snapshot of a game until it is the turn of a side.
+	 */
+	private JSONObject awaitTurn(int gameId, String turn) throws IOException {
+		String etag = null;
+		for (int attempt = 0; attempt < 10; attempt++) {
+			URL url = new URL("http", Bootstrap.IP_ADDRESS, Bootstrap.PORT,
+					"/hareandhounds/api/games/" + gameId + "?wait=5");
+			HttpURLConnection http = (HttpURLConnection) url.openConnection();
+			if (etag != null) {
+				http.setRequestProperty("If-None-Match", etag);
+			}
+			if (http.getResponseCode() == 200) {
+				JSONObject snapshot = new JSONObject(IOUtils.toString(http.getInputStream()));
+				if (turn.equals(snapshot.opt("turn"))) {
+					return snapshot;
+				}
+				etag = http.getHeaderField("ETag");
+			}
+		}
+		fail("Not the turn of " + turn);
+		return null;
+	}
+
+	@Test
+	public void testConditionalGet() throws Exception {
+		// Start and join a game
+		JSONObject content = new JSONObject();
+		content.put("pieceType", "HOUND");
+		Response resStart = request("POST", "games", content.toString());
+		int gameId = new JSONObject(resStart.content).getInt("gameId");
+		String playerHound = new JSONObject(resStart.content).getString("playerId");
+		String playerHare = new JSONObject(request("PUT", "games/" + gameId, null).content).getString("playerId");
+
+		// The version of the game is the ETag of its board
+		HttpURLConnection http = this.conditionalGet(gameId, null, 0);
+		assertEquals(200, http.getResponseCode());
+		String etag = http.getHeaderField("ETag");
+		assertEquals("\"1\"", etag);
+
+		// An unchanged game is not sent again
+		http = this.conditionalGet(gameId, etag, 0);
+		assertEquals(304, http.getResponseCode());
+		assertEquals(etag, http.getHeaderField("ETag"));
+
+		// A long poll times out with 304 if nothing happens
+		http = this.conditionalGet(gameId, etag, 1);
+		assertEquals(304, http.getResponseCode());
+
+		// A long poll returns as soon as a move is made
+		HttpURLConnection poll = this.conditionalGet(gameId, etag, 20);
+		Thread mover = new Thread(() -> {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			turn(gameId, playerHound, 0, 1, 1, 1);
+		});
+		long start = System.currentTimeMillis();
+		mover.start();
+		assertEquals(200, poll.getResponseCode());
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		mover.join();
+		assertEquals("\"2\"", poll.getHeaderField("ETag"));
+		assertEquals(this.getBoard(gameId), IOUtils.toString(poll.getInputStream()));
+
+		// Waiting polls hold no request threads: more of them than Jetty has
+		// threads do not keep a move from being made
+		int polls = 250;
+		ExecutorService clients = Executors.newFixedThreadPool(polls);
+		List<Future<Integer>> answers = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < polls; i++) {
+			answers.add(clients.submit(() -> this.conditionalGet(gameId, "\"2\"", 20).getResponseCode()));
+		}
+		Thread.sleep(1000);
+		start = System.currentTimeMillis();
+		assertEquals(200, turn(gameId, playerHare, 4, 1, 3, 1));
+		for (Future<Integer> answer : answers) {
+			assertEquals(Integer.valueOf(200), answer.get());
+		}
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		clients.shutdown();
+	}
+
+	@Test
+	public void testConcurrentChanges() throws Exception {
+		JSONObject content = new JSONObject();
+		content.put("pieceType", "HOUND");
+		Response resStart = request("POST", "games", content.toString());
+		int gameId = new JSONObject(resStart.content).getInt("gameId");
+		String playerHound = new JSONObject(resStart.content).getString("playerId");
+
+		// Only one of many simultaneous joins gets the seat
+		List<Integer> joins = this.concurrently(16, () -> request("PUT", "games/" + gameId, null).httpStatus);
+		assertEquals(1, Collections.frequency(joins, 200));
+		assertEquals(15, Collections.frequency(joins, 410));
+
+		// Only one of many simultaneous copies of a move is played
+		List<Integer> turns = this.concurrently(16, () -> turn(gameId, playerHound, 0, 1, 1, 1));
+		assertEquals(1, Collections.frequency(turns, 200));
+		assertEquals(15, Collections.frequency(turns, 422));
+		assertEquals("TURN_HARE", this.getState(gameId));
+	}
+
+	/**
+	 * Run a request on many threads at once.
+	 * 
+	 * @return the response codes
+	 */
+	private List<Integer> concurrently(int threads, Callable<Integer> request) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CyclicBarrier start = new CyclicBarrier(threads);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < threads; i++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				return request.call();
+			}));
+		}
+		List<Integer> statuses = new ArrayList<Integer>();
+		for (Future<Integer> future : futures) {
+			statuses.add(future.get());
+		}
+		pool.shutdown();
+		return statuses;
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		// Play a legal and an illegal move
+		JSONObject content = new JSONObject();
+		content.put("pieceType", "HOUND");
+		Response resStart = request("POST", "games", content.toString());
+		int gameId = new JSONObject(resStart.content).getInt("gameId");
+		String playerHound = new JSONObject(resStart.content).getString("playerId");
+		request("PUT", "games/" + gameId, null);
+		assertEquals(200, turn(gameId, playerHound, 0, 1, 1, 1));
+		assertEquals(422, turn(gameId, playerHound, 1, 1, 2, 1));
+		// A route that throws is recorded with the status of the answer
+		assertEquals(500, request("GET", "games/x/board", null).httpStatus);
+
+		URL url = new URL("http", Bootstrap.IP_ADDRESS, Bootstrap.PORT, "/metrics");
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+		assertEquals(200, http.getResponseCode());
+		assertTrue(http.getContentType().startsWith("text/plain"));
+		String metrics = IOUtils.toString(http.getInputStream());
+		assertTrue(metrics.contains("hareandhounds_http_request_duration_seconds_count{route=\"POST /games\"} 1\n"));
+		assertTrue(metrics.contains(
+				"hareandhounds_http_responses_total{route=\"POST /games/:gameId/turns\",status=\"422\"} 1\n"));
+		assertTrue(metrics.contains(
+				"hareandhounds_http_responses_total{route=\"GET /games/:gameId/board\",status=\"500\"} 1\n"));
+		assertTrue(metrics.contains("hareandhounds_turn_results_total{result=\"SUCCESS\"} 1\n"));
+		assertTrue(metrics.contains("hareandhounds_turn_results_total{result=\"INCORRECT_TURN\"} 1\n"));
+		assertTrue(metrics.contains("hareandhounds_db_duration_seconds_count{method=\"commitTurn\"} 1\n"));
+		assertTrue(metrics.contains("hareandhounds_cached_games{state=\"TURN_HARE\"} 1\n"));
+	}
+
+	private HttpURLConnection conditionalGet(int gameId, String etag, int wait) throws IOException {
+		URL url = new URL("http", Bootstrap.IP_ADDRESS, Bootstrap.PORT,
+				"/hareandhounds/api/games/" + gameId + "/board?wait=" + wait);
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+		if (etag != null) {
+			http.setRequestProperty("If-None-Match", etag);
+		}
+		return http;
+	}
+
+	private JSONObject nextEvent(BufferedReader events) throws IOException {
+		String line;
+		while ((line = events.readLine()) != null) {
+			if (line.startsWith("data: ")) {
+				return new JSONObject(line.substring("data: ".length()));
+			}
+		}
+		fail("Event stream closed");
+		return null;
 	}
 
 	private String getState(int gameId) {
@@ -182,10 +556,6 @@ public class TestGameServer {
 			this.content = content;
 			this.httpStatus = httpStatus;
 		}
-
-		public <T> T getContentAsObject(Type type) {
-			return new Gson().fromJson(content, type);
-		}
 	}
 
 }
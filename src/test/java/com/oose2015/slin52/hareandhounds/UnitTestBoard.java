@@ -9,6 +9,8 @@ import java.nio.file.Paths;
 
 import javax.sql.DataSource;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 import org.sqlite.SQLiteDataSource;
 
@@ -61,6 +63,62 @@ public class UnitTestBoard {
 		assertEquals(board1.toString(), board2.toString());
 	}
 
+	@Test
+	public void testSetPosition() {
+		Board board1 = new Board();
+		Board board2 = new Board();
+		board2.setPieceTypeByXY(2, 2, "HARE");
+		// Set position
+		board1.setPosition(board2.getPosition());
+		assertEquals(board1.getStatus(), board2.getStatus());
+		assertTrue(board1.getPosition() < Board.POSITION_COUNT);
+	}
+
+	@Test
+	public void testCheckHareState() {
+		Board board = new Board();
+		assertEquals(board.checkHareState(), null);
+
+		// Hare trapped by three hounds
+		board.setStatus("NULL_NULL_HOUND_NULL_NULL_NULL_HOUND_HARE_NULL_NULL_HOUND");
+		assertEquals(board.checkHareState(), "WIN_HOUND");
+
+		// Hare escaped behind all hounds
+		board.setStatus("HOUND_NULL_NULL_NULL_HARE_HOUND_NULL_NULL_HOUND_NULL_NULL");
+		assertEquals(board.checkHareState(), "WIN_HARE_BY_ESCAPE");
+
+		// Until the hare escapes or is trapped, neither side is ever stuck
+		for (int hare = 0; hare < Board.VERTEX_COUNT; hare++) {
+			for (int hounds = 0; hounds < 1 << Board.VERTEX_COUNT; hounds++) {
+				if (Integer.bitCount(hounds) == 3 && (hounds & 1 << hare) == 0) {
+					int position = Board.positionOf(hounds, hare);
+					if (Board.checkHareState(position) == null) {
+						assertTrue(Board.hasMove(position, false));
+						assertTrue(Board.hasMove(position, true));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDescribeMoves() {
+		int start = new Board().getPosition();
+		JSONArray houndMoves = Board.describeMoves(start, false);
+		assertEquals(houndMoves.length(), 7);
+		assertEquals(Board.describeMoves(start, true).length(), 3);
+
+		// Every move is accepted by the game
+		for (int i = 0; i < houndMoves.length(); i++) {
+			JSONObject move = houndMoves.getJSONObject(i);
+			Game game = new Game();
+			game.join("HOUND", "player1");
+			game.join("player2");
+			assertEquals(game.turn("player1", move.getInt("fromX"), move.getInt("fromY"), move.getInt("toX"),
+					move.getInt("toY")), "SUCCESS");
+		}
+	}
+
 	@Test
 	public void testGetVerticesByPieceType() {
 		Board board = new Board();
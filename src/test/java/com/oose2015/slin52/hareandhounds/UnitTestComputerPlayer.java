@@ -0,0 +1,49 @@
+package com.oose2015.slin52.hareandhounds;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class UnitTestComputerPlayer {
+
+	@Test
+	public void testPlayerId() {
+		assertEquals(ComputerPlayer.strengthOf(ComputerPlayer.playerIdOf(7)), 7);
+		assertEquals(ComputerPlayer.strengthOf("player1"), 0);
+		assertEquals(ComputerPlayer.strengthOf("computerX"), 0);
+		assertEquals(ComputerPlayer.strengthOf(null), 0);
+	}
+
+	@Test
+	public void testFindsForcedWins() {
+		// Every won position close to the end is won by the search too
+		short[] entries = TablebaseSolver.solve();
+		int checked = 0;
+		for (int position : Tablebase.POSITIONS) {
+			for (boolean hareToMove : new boolean[] { false, true }) {
+				int entry = entries[Tablebase.index(position, hareToMove)];
+				int distance = Tablebase.distanceOf(entry);
+				if (Tablebase.valueOf(entry) != Tablebase.WIN || distance == 0 || distance > 5) {
+					continue;
+				}
+				int move = new ComputerPlayer.Search(10000).bestMove(position, hareToMove, 8);
+				int from = ComputerPlayer.fromOf(move);
+				int to = ComputerPlayer.toOf(move);
+				assertTrue((Board.destinations(position, from) & (1 << to)) != 0);
+				int next = entries[Tablebase.index(Board.move(position, from, to), !hareToMove)];
+				assertEquals(Tablebase.valueOf(next), Tablebase.LOSS);
+				checked++;
+			}
+		}
+		assertTrue(checked > 0);
+	}
+
+	@Test
+	public void testChooseMove() throws Exception {
+		ComputerPlayer computerPlayer = new ComputerPlayer(2);
+		int start = new Board().getPosition();
+		int move = computerPlayer.chooseMove(start, false, 3).get();
+		assertTrue((Board.destinations(start, ComputerPlayer.fromOf(move)) & (1 << ComputerPlayer.toOf(move))) != 0);
+		computerPlayer.stop();
+	}
+}
@@ -0,0 +1,351 @@
+package com.oose2015.slin52.hareandhounds;
+
+import static org.junit.Assert.*;
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sqlite.SQLiteDataSource;
+
+public class UnitTestGameService {
+
+	private GameService gameService;
+
+	@Before
+	public void setup() throws Exception {
+		TestGameServer.deleteDatabase();
+	}
+
+	@After
+	public void clean() throws Exception {
+		if (this.gameService != null) {
+			this.gameService.close();
+		}
+		TestGameServer.deleteDatabase();
+	}
+
+	@Test
+	public void testMigrateBoardStatus() throws Exception {
+		// Write a database in the board status string format
+		SQLiteDataSource dataSource = new SQLiteDataSource();
+		dataSource.setUrl("jdbc:sqlite:game.db");
+		try (Connection conn = new Sql2o(dataSource).open()) {
+			conn.createQuery("CREATE TABLE game (gameId INTEGER PRIMARY KEY autoincrement,"
+					+ "state TEXT, boardStatus TEXT, playerHare TEXT, playerHound TEXT)").executeUpdate();
+			conn.createQuery("CREATE TABLE board (id INTEGER PRIMARY KEY autoincrement,"
+					+ "gameId INTEGER,	boardStatus TEXT)").executeUpdate();
+			conn.createQuery("INSERT INTO game (state, boardStatus, playerHare, playerHound) VALUES "
+					+ "('TURN_HARE', 'NULL_NULL_NULL_HOUND_HOUND_NULL_NULL_HARE_HOUND_NULL_NULL', 'player2', 'player1')")
+					.executeUpdate();
+			conn.createQuery("INSERT INTO board (gameId, boardStatus) VALUES "
+					+ "(1, 'HOUND_NULL_NULL_HOUND_NULL_NULL_NULL_HARE_HOUND_NULL_NULL')").executeUpdate();
+			conn.createQuery("INSERT INTO board (gameId, boardStatus) VALUES "
+					+ "(1, 'NULL_NULL_NULL_HOUND_HOUND_NULL_NULL_HARE_HOUND_NULL_NULL')").executeUpdate();
+			// Finished games fill more than one batch of the migration
+			conn.createQuery("WITH RECURSIVE n(i) AS (SELECT 2 UNION ALL SELECT i + 1 FROM n WHERE i < 25001) "
+					+ "INSERT INTO board (gameId, boardStatus) SELECT i, "
+					+ "'HOUND_NULL_NULL_HOUND_NULL_NULL_NULL_HARE_HOUND_NULL_NULL' FROM n").executeUpdate();
+		}
+
+		gameService = new GameService();
+		Game game = gameService.findGameToChange(1);
+		assertEquals(game.getState(), "TURN_HARE");
+		assertEquals(game.getBoardStatus(), "NULL_NULL_NULL_HOUND_HOUND_NULL_NULL_HARE_HOUND_NULL_NULL");
+		assertEquals(game.getPlayerHound(), "player1");
+		assertEquals(gameService.isStalling(1, game), false);
+		try (Connection conn = new Sql2o(dataSource).open()) {
+			assertEquals(conn.createQuery("SELECT count(*) FROM board").executeScalar(Integer.class).intValue(), 25002);
+		}
+
+		// Opening the migrated database again keeps it as is
+		gameService.close();
+		gameService = new GameService();
+		game = gameService.findGame(1);
+		assertEquals(game.getBoardStatus(), "NULL_NULL_NULL_HOUND_HOUND_NULL_NULL_HARE_HOUND_NULL_NULL");
+	}
+
+	@Test
+	public void testStalling() throws Exception {
+		gameService = new GameService();
+		int gameId = gameService.newGame("HOUND").getInt("gameId");
+		Game game = gameService.findGameToChange(gameId);
+		game.join("player2");
+		gameService.updateGame(game, gameId);
+
+		// Hound and hare move back and forth; the start position repeats
+		int[][] moves = { { 1, 0, 1, 1 }, { 4, 1, 3, 1 }, { 1, 1, 1, 0 }, { 3, 1, 4, 1 } };
+		for (int round = 0; round < 2; round++) {
+			for (int[] move : moves) {
+				String playerId = game.getState().equals("TURN_HOUND") ? "player1" : "player2";
+				assertEquals(game.turn(playerId, move[0], move[1], move[2], move[3]), "SUCCESS");
+				game.nextPlayer();
+				boolean stalling = gameService.isStalling(gameId, game);
+				assertEquals(stalling, round == 1 && move == moves[3]);
+				gameService.updateGame(game, gameId);
+				gameService.insertBoard(gameId, game.getPosition());
+			}
+		}
+
+		// Positions are counted from the database for a game that is not cached
+		GameService other = new GameService();
+		Game uncached = other.findGameToChange(gameId);
+		assertNull(uncached.getRepetitions());
+		// The same position with the other side to move is not a repetition
+		uncached.setState("TURN_HARE");
+		assertEquals(other.isStalling(gameId, uncached), false);
+		uncached.setState("TURN_HOUND");
+		assertEquals(other.isStalling(gameId, uncached), true);
+		other.close();
+	}
+
+	@Test
+	public void testCommitTurnConcurrently() throws Exception {
+		gameService = new GameService();
+		int[] gameIds = new int[20];
+		for (int i = 0; i < gameIds.length; i++) {
+			gameIds[i] = gameService.newGame("HOUND").getInt("gameId");
+			Game game = gameService.findGameToChange(gameIds[i]);
+			game.join("player2");
+			gameService.updateGame(game, gameIds[i]);
+		}
+
+		// Every game makes a move at the same time
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		for (int gameId : gameIds) {
+			threads.add(new Thread(() -> {
+				try {
+					Game game = gameService.findGameToChange(gameId);
+					game.turn("player1", 0, 1, 1, 1);
+					game.nextPlayer();
+					gameService.commitTurn(gameId, game);
+				} catch (Exception ex) {
+					errors.add(ex);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(errors, Collections.emptyList());
+
+		// All moves are in the database
+		GameService other = new GameService();
+		for (int gameId : gameIds) {
+			Game game = other.findGame(gameId);
+			assertEquals(game.getState(), "TURN_HARE");
+			assertEquals(game.getBoardStatus(), "HOUND_NULL_NULL_NULL_HOUND_NULL_NULL_HARE_HOUND_NULL_NULL");
+		}
+		other.close();
+	}
+
+	@Test
+	public void testMatchmaking() throws Exception {
+		gameService = new GameService();
+		assertNull(gameService.findMatch("FOX"));
+
+		// The first player waits without a game, the second one pairs with it
+		Matchmaking.Ticket hare = gameService.findMatch("HARE");
+		assertFalse(hare.match.isDone());
+		assertSame(gameService.findTicket(hare.ticketId), hare);
+		assertEquals(gameService.countWaitingPlayers("HARE"), 1);
+		Matchmaking.Ticket hound = gameService.findMatch("HOUND");
+		JSONObject hareGame = hare.match.get(1, TimeUnit.SECONDS);
+		JSONObject houndGame = hound.match.get(1, TimeUnit.SECONDS);
+		assertEquals(hareGame.getInt("gameId"), houndGame.getInt("gameId"));
+		assertEquals(hareGame.getString("playerId"), "player1");
+		assertEquals(houndGame.getString("playerId"), "player2");
+		Game game = gameService.findGame(hareGame.getInt("gameId"));
+		assertEquals(game.getState(), "TURN_HOUND");
+		assertEquals(game.getPlayerHare(), "player1");
+		assertEquals(game.getPlayerHound(), "player2");
+		assertFalse(gameService.withdrawTicket(hare));
+		assertEquals(gameService.countWaitingPlayers("HARE"), 0);
+
+		// A withdrawn player is passed over
+		Matchmaking.Ticket gone = gameService.findMatch("HOUND");
+		assertTrue(gameService.withdrawTicket(gone));
+		assertNull(gameService.findTicket(gone.ticketId));
+		Matchmaking.Ticket waiting = gameService.findMatch("HARE");
+		assertFalse(waiting.match.isDone());
+		assertFalse(gone.match.isDone());
+		assertTrue(gameService.withdrawTicket(waiting));
+
+		// An expired player passed over is withdrawn, not left waiting
+		Matchmaking matchmaking = new Matchmaking();
+		Matchmaking.Ticket expired = new Matchmaking.Ticket("HARE");
+		matchmaking.enqueue(expired);
+		Field deadline = Matchmaking.Ticket.class.getDeclaredField("deadline");
+		deadline.setAccessible(true);
+		deadline.setLong(expired, System.currentTimeMillis() - 1);
+		assertFalse(matchmaking.hasOpponent("HOUND"));
+		assertNull(matchmaking.find(expired.ticketId));
+		assertFalse(matchmaking.withdraw(expired));
+
+		// A withdrawn ticket queued again waits again and is claimed once
+		Matchmaking.Ticket again = new Matchmaking.Ticket("HARE");
+		matchmaking.enqueue(again);
+		assertTrue(matchmaking.withdraw(again));
+		matchmaking.enqueue(again);
+		assertTrue(matchmaking.hasOpponent("HOUND"));
+		assertEquals(matchmaking.countWaiting("HARE"), 1);
+		assertSame(matchmaking.claimOpponent("HOUND"), again);
+		assertNull(matchmaking.claimOpponent("HOUND"));
+		assertFalse(matchmaking.hasOpponent("HOUND"));
+		matchmaking.close();
+	}
+
+	@Test
+	public void testMatchmakingConcurrently() throws Exception {
+		gameService = new GameService();
+		int players = 400;
+		List<Thread> threads = new ArrayList<Thread>();
+		List<JSONObject> games = Collections.synchronizedList(new ArrayList<JSONObject>());
+		List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		for (int i = 0; i < players; i++) {
+			String pieceType = i % 2 == 0 ? "HOUND" : "HARE";
+			threads.add(new Thread(() -> {
+				try {
+					games.add(gameService.findMatch(pieceType).match.get(10, TimeUnit.SECONDS));
+				} catch (Exception ex) {
+					errors.add(ex);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(errors, Collections.emptyList());
+
+		// Every player has a seat of its own in a game of two
+		Map<Integer, List<JSONObject>> seats = new HashMap<Integer, List<JSONObject>>();
+		for (JSONObject game : games) {
+			seats.computeIfAbsent(game.getInt("gameId"), gameId -> new ArrayList<JSONObject>()).add(game);
+		}
+		assertEquals(seats.size(), players / 2);
+		for (Map.Entry<Integer, List<JSONObject>> entry : seats.entrySet()) {
+			List<JSONObject> pair = entry.getValue();
+			assertEquals(pair.size(), 2);
+			assertNotEquals(pair.get(0).getString("pieceType"), pair.get(1).getString("pieceType"));
+			assertNotEquals(pair.get(0).getString("playerId"), pair.get(1).getString("playerId"));
+			assertEquals(gameService.findGame(entry.getKey()).getState(), "TURN_HOUND");
+		}
+		assertEquals(gameService.countWaitingPlayers("HOUND"), 0);
+		assertEquals(gameService.countWaitingPlayers("HARE"), 0);
+	}
+
+	@Test
+	public void testStaleUpdate() throws Exception {
+		// Two servers share the database
+		gameService = new GameService();
+		GameService other = new GameService();
+		int gameId = gameService.newGame("HOUND").getInt("gameId");
+		Game first = gameService.findGameToChange(gameId);
+		Game second = other.findGameToChange(gameId);
+		first.join("player2");
+		gameService.updateGame(first, gameId);
+
+		// A change of a game read before the update is rejected
+		second.join("player2");
+		try {
+			other.updateGame(second, gameId);
+			fail("Saved a stale game");
+		} catch (GameService.StaleGameException ex) {
+			assertEquals(second.getVersion(), 0);
+		}
+		second = other.findGameToChange(gameId);
+		assertEquals(second.getVersion(), 1);
+		assertEquals(second.getState(), "TURN_HOUND");
+
+		// The same holds for moves, and nothing of a rejected move is saved
+		assertEquals(first.turn("player1", 0, 1, 1, 1), "SUCCESS");
+		first.nextPlayer();
+		gameService.commitTurn(gameId, first);
+		assertEquals(second.turn("player1", 1, 0, 1, 1), "SUCCESS");
+		second.nextPlayer();
+		try {
+			other.commitTurn(gameId, second);
+			fail("Saved a stale move");
+		} catch (GameService.StaleGameException ex) {
+			// expected
+		}
+		assertEquals(other.findGame(gameId).getPosition(), first.getPosition());
+		SQLiteDataSource dataSource = new SQLiteDataSource();
+		dataSource.setUrl("jdbc:sqlite:game.db");
+		try (Connection conn = new Sql2o(dataSource).open()) {
+			assertEquals(conn.createQuery("SELECT count(*) FROM board WHERE gameId = :gameId")
+					.addParameter("gameId", gameId).executeScalar(Integer.class), Integer.valueOf(2));
+		}
+		other.close();
+	}
+
+	@Test
+	public void testGameCache() throws Exception {
+		gameService = new GameService();
+		int gameId = gameService.newGame("HOUND").getInt("gameId");
+
+		// The new game is cached on creation
+		Game game = gameService.findGameToChange(gameId);
+		assertEquals(gameService.getCacheHits(), 1);
+		assertEquals(gameService.getCacheMisses(), 0);
+
+		// Changes are only visible after updateGame
+		game.join("player2");
+		assertEquals(gameService.findGame(gameId).getState(), "WAITING_FOR_SECOND_PLAYER");
+		gameService.updateGame(game, gameId);
+		assertEquals(gameService.findGame(gameId).getState(), "TURN_HOUND");
+
+		// Unknown games miss the cache
+		assertNull(gameService.findGame(gameId + 1));
+		assertEquals(gameService.getCacheMisses(), 1);
+
+		// Readers share the cached game, a change works on a copy
+		assertSame(gameService.findGame(gameId), gameService.findGame(gameId));
+		assertNotSame(gameService.findGameToChange(gameId), gameService.findGame(gameId));
+	}
+
+	@Test
+	public void testGameCacheKeepsNewerVersion() {
+		GameCache cache = new GameCache(100, 60000);
+		Game older = new Game();
+		older.join("HOUND", "player1");
+		Game newer = new Game(older);
+		newer.join("player2");
+		newer.setVersion(1);
+		cache.put(7, newer);
+
+		// A slow read of the old version does not hide the change
+		cache.putIfAbsent(7, older);
+		assertEquals(cache.get(7).getVersion(), 1);
+		cache.put(7, older);
+		assertEquals(cache.get(7).getState(), "TURN_HOUND");
+		cache.remove(7);
+		cache.putIfAbsent(7, older);
+		assertEquals(cache.get(7).getVersion(), 0);
+
+		// Games are spread over segments but the capacity holds
+		for (int gameId = 0; gameId < 1000; gameId++) {
+			cache.put(gameId, older);
+		}
+		assertTrue(cache.size() <= 128);
+		assertNotNull(cache.get(999));
+	}
+}
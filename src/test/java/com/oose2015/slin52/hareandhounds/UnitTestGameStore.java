@@ -0,0 +1,422 @@
+package com.oose2015.slin52.hareandhounds;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sqlite.SQLiteConfig;
+
+public class UnitTestGameStore {
+
+	private Path directory;
+
+	@Before
+	public void setup() throws Exception {
+		this.directory = Files.createTempDirectory("hareandhounds");
+	}
+
+	@After
+	public void clean() throws Exception {
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testStores() throws Exception {
+		for (String name : new String[] { GameStore.SQLITE, GameStore.MEMORY, GameStore.LOG }) {
+			GameStore store = GameStore.open(name, this.directory);
+			this.checkStore(store);
+			store.close();
+		}
+	}
+
+	@Test
+	public void testConnectionPoolReplacesBrokenConnection() throws Exception {
+		ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + this.directory.resolve("pool.db"),
+				new SQLiteConfig(), 1);
+		Connection conn = pool.getConnection();
+		conn.setAutoCommit(false);
+		// The rollback on release fails on a dead connection
+		Object handle = Proxy.getInvocationHandler(conn);
+		Field physical = handle.getClass().getDeclaredField("physical");
+		physical.setAccessible(true);
+		((Connection) physical.get(handle)).close();
+		try {
+			conn.close();
+			fail("Released a dead connection");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		// The only connection of the pool is replaced, not lost
+		try (Connection again = pool.getConnection();
+				Statement statement = again.createStatement();
+				ResultSet result = statement.executeQuery("SELECT 1")) {
+			assertEquals(result.getInt(1), 1);
+		}
+		pool.close();
+	}
+
+	@Test
+	public void testConnectionPoolClosesEvictedStatements() throws Exception {
+		ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + this.directory.resolve("pool.db"),
+				new SQLiteConfig(), 1);
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement first = conn.prepareStatement("SELECT 0");
+			assertSame(conn.prepareStatement("SELECT 0"), first);
+			Object handle = Proxy.getInvocationHandler(first);
+			Field statement = handle.getClass().getDeclaredField("statement");
+			statement.setAccessible(true);
+			PreparedStatement physical = (PreparedStatement) statement.get(handle);
+
+			// Preparing more statements than are kept closes the oldest one
+			for (int i = 1; i <= ConnectionPool.MAX_STATEMENTS; i++) {
+				conn.prepareStatement("SELECT " + i);
+			}
+			try {
+				physical.executeQuery();
+				fail("Ran an evicted statement");
+			} catch (SQLException ex) {
+				// expected
+			}
+			PreparedStatement again = conn.prepareStatement("SELECT 0");
+			assertNotSame(again, first);
+			try (ResultSet result = again.executeQuery()) {
+				assertEquals(result.getInt(1), 0);
+			}
+		}
+		pool.close();
+	}
+
+	@Test
+	public void testWriterStopsAllWrites() throws Exception {
+		Sql2o db = new Sql2o("jdbc:sqlite:" + this.directory.resolve("writer.db"), null, null);
+		try (org.sql2o.Connection conn = db.open()) {
+			conn.createQuery("CREATE TABLE counter (value INTEGER)").executeUpdate();
+		}
+		GroupCommitWriter writer = new GroupCommitWriter(db);
+		GroupCommitWriter.Write insert = conn -> conn.createQuery("INSERT INTO counter VALUES (1)").executeUpdate();
+		writer.submit(insert);
+
+		// Writes submitted while the writer stops either commit or fail
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < 50; j++) {
+					try {
+						writer.submit(insert);
+					} catch (Sql2oException ex) {
+						// stopped
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		writer.stop();
+		for (Thread thread : threads) {
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		}
+		try {
+			writer.submit(insert);
+			fail("Submitted to a stopped writer");
+		} catch (Sql2oException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testWriterUndoesOnlyFailingWrites() throws Exception {
+		Sql2o db = new Sql2o("jdbc:sqlite:" + this.directory.resolve("savepoint.db"), null, null);
+		try (org.sql2o.Connection conn = db.open()) {
+			conn.createQuery("CREATE TABLE counter (value INTEGER)").executeUpdate();
+		}
+		GroupCommitWriter writer = new GroupCommitWriter(db);
+		GroupCommitWriter.Write insert = conn -> conn.createQuery("INSERT INTO counter VALUES (1)").executeUpdate();
+		GroupCommitWriter.Write failing = conn -> {
+			conn.createQuery("INSERT INTO counter VALUES (2)").executeUpdate();
+			throw new Sql2oException("Failing write");
+		};
+
+		// Failing writes share batches with good ones, which still commit
+		AtomicInteger failures = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < 50; j++) {
+					try {
+						writer.submit(j % 2 == 0 ? insert : failing);
+					} catch (Sql2oException ex) {
+						failures.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+		writer.stop();
+		assertEquals(200, failures.get());
+		try (org.sql2o.Connection conn = db.open()) {
+			assertEquals(Integer.valueOf(200),
+					conn.createQuery("SELECT COUNT(*) FROM counter WHERE value = 1").executeScalar(Integer.class));
+			assertEquals(Integer.valueOf(0),
+					conn.createQuery("SELECT COUNT(*) FROM counter WHERE value = 2").executeScalar(Integer.class));
+		}
+	}
+
+	private void checkStore(GameStore store) {
+		Game game = new Game();
+		game.join("HOUND", "player1");
+		int gameId = store.create(game);
+		assertNull(store.load(gameId + 1));
+		assertArrayEquals(store.positions(gameId), new int[] { game.getPosition() });
+
+		// Saves succeed only on top of the version they were read with
+		Game stale = store.load(gameId);
+		game = store.load(gameId);
+		game.join("player2");
+		game.setVersion(1);
+		assertTrue(store.save(gameId, game));
+		stale.setVersion(1);
+		assertFalse(store.save(gameId, stale));
+		assertEquals(store.load(gameId).getState(), "TURN_HOUND");
+
+		// A move saves the game and its position together
+		assertEquals(game.turn("player1", 0, 1, 1, 1), "SUCCESS");
+		game.nextPlayer();
+		game.setVersion(2);
+		assertTrue(store.saveTurn(gameId, game));
+		assertFalse(store.saveTurn(gameId, game));
+		store.appendPosition(gameId, 42);
+		Game loaded = store.load(gameId);
+		assertEquals(loaded.getVersion(), 2);
+		assertEquals(loaded.getPosition(), game.getPosition());
+		assertEquals(loaded.getPlayerHare(), "player2");
+		assertArrayEquals(store.positions(gameId), new int[] { new Board().getPosition(), game.getPosition(), 42 });
+
+		// Games created together, more than fit in one statement
+		Game[] games = new Game[250];
+		for (int i = 0; i < games.length; i++) {
+			games[i] = new Game();
+			games[i].join(i % 2 == 0 ? "HOUND" : "HARE", "player1");
+		}
+		int[] gameIds = store.createAll(games);
+		assertEquals(gameIds.length, games.length);
+		for (int i = 0; i < games.length; i++) {
+			assertEquals(gameIds[i], gameId + 1 + i);
+			assertEquals(store.load(gameIds[i]).getPlayerHound(), i % 2 == 0 ? "player1" : "null");
+			assertArrayEquals(store.positions(gameIds[i]), new int[] { games[i].getPosition() });
+		}
+	}
+
+	@Test
+	public void testReplayLog() throws Exception {
+		// Small segments, so the log spans several of them
+		Path logDirectory = this.directory.resolve(LogGameStore.LOG_DIRECTORY);
+		LogGameStore store = new LogGameStore(logDirectory, 128);
+		Game game = new Game();
+		game.join("HOUND", "player1");
+		int first = store.create(game);
+		game.join("player2");
+		game.setVersion(1);
+		store.save(first, game);
+		this.play(store, first, game, 10);
+		store.snapshot();
+
+		// Changes after the snapshot, to a game in it and to a new one
+		this.play(store, first, game, 3);
+		int second = store.create(new Game());
+		store.appendPosition(second, 42);
+
+		// A store opened on the log of a running store sees everything, as
+		// after a crash
+		Game[] games = { store.load(first), store.load(second) };
+		int[][] positions = { store.positions(first), store.positions(second) };
+		assertEquals(positions[0].length, 14);
+		LogGameStore replayed = new LogGameStore(logDirectory, 128);
+		this.checkReplayed(replayed, new int[] { first, second }, games, positions);
+		replayed.close();
+		store.close();
+		try (Stream<Path> files = Files.list(logDirectory)) {
+			assertTrue(files.filter(file -> file.toString().endsWith(".seg")).count() > 1);
+		}
+
+		// Without a snapshot the whole log is replayed
+		Files.delete(logDirectory.resolve("snapshot"));
+		replayed = new LogGameStore(logDirectory, 128);
+		this.checkReplayed(replayed, new int[] { first, second }, games, positions);
+		assertEquals(replayed.load(first).getVersion(), 14);
+		// New games continue after the replayed ones
+		assertEquals(replayed.create(new Game()), second + 1);
+		replayed.close();
+	}
+
+	@Test
+	public void testLogDropsFinishedGames() throws Exception {
+		Path logDirectory = this.directory.resolve(LogGameStore.LOG_DIRECTORY);
+		LogGameStore store = new LogGameStore(logDirectory, 128);
+		Game game = new Game();
+		game.join("HOUND", "player1");
+		int finished = store.create(game);
+		int playing = store.create(game);
+		game.join("player2");
+		game.setVersion(1);
+		store.save(finished, game);
+		store.save(playing, game);
+		// The records of the other game come in between
+		for (int i = 0; i < 5; i++) {
+			this.play(store, finished, game, 2);
+			store.appendPosition(playing, i);
+		}
+		game.setState("WIN_HOUND");
+		game.setVersion(game.getVersion() + 1);
+		assertTrue(store.save(finished, game));
+		int[] positions = store.positions(finished);
+
+		// The finished game is read back from the log, but not kept
+		assertEquals(store.records().size(), 1);
+		assertEquals(store.load(finished).toString(), game.toString());
+		assertArrayEquals(store.positions(finished), positions);
+		assertEquals(store.records().size(), 1);
+
+		// A change to it is written down as well
+		store.appendPosition(finished, 42);
+		assertEquals(store.records().size(), 1);
+		assertEquals(store.positions(finished).length, positions.length + 1);
+		store.close();
+
+		// Only the game in progress is in the snapshot, and ids go on
+		LogGameStore reopened = new LogGameStore(logDirectory, 128);
+		assertEquals(reopened.records().size(), 1);
+		assertEquals(reopened.load(finished).toString(), game.toString());
+		assertEquals(reopened.positions(finished).length, positions.length + 1);
+		assertEquals(reopened.create(new Game()), playing + 1);
+		reopened.close();
+
+		// Replaying the whole log drops the finished game again
+		Files.delete(logDirectory.resolve("snapshot"));
+		reopened = new LogGameStore(logDirectory, 128);
+		assertEquals(reopened.records().size(), 2);
+		assertEquals(reopened.load(finished).toString(), game.toString());
+		reopened.close();
+	}
+
+	/**
+	 * Let hound and hare move back and forth.
+	 */
+	private void play(GameStore store, int gameId, Game game, int moves) {
+		int[][] cycle = { { 1, 0, 1, 1 }, { 4, 1, 3, 1 }, { 1, 1, 1, 0 }, { 3, 1, 4, 1 } };
+		for (int i = 0; i < moves; i++) {
+			int[] move = cycle[(game.getVersion() - 1) % cycle.length];
+			String playerId = game.getState().equals("TURN_HOUND") ? "player1" : "player2";
+			assertEquals(game.turn(playerId, move[0], move[1], move[2], move[3]), "SUCCESS");
+			game.nextPlayer();
+			game.setVersion(game.getVersion() + 1);
+			assertTrue(store.saveTurn(gameId, game));
+		}
+	}
+
+	private void checkReplayed(GameStore replayed, int[] gameIds, Game[] games, int[][] positions) {
+		for (int i = 0; i < gameIds.length; i++) {
+			assertEquals(replayed.load(gameIds[i]).toString(), games[i].toString());
+			assertArrayEquals(replayed.positions(gameIds[i]), positions[i]);
+		}
+	}
+
+	@Test
+	public void testIncrementalVacuum() throws Exception {
+		// A new database uses it from the start
+		SqliteGameStore store = new SqliteGameStore(this.directory.resolve(GameService.DATABASE_FILE));
+		store.close();
+		assertEquals(this.autoVacuum(this.directory.resolve(GameService.DATABASE_FILE)), 2);
+
+		// An older database is only converted on request
+		Path older = this.directory.resolve("older.db");
+		Sql2o db = new Sql2o("jdbc:sqlite:" + older, null, null);
+		try (org.sql2o.Connection conn = db.open()) {
+			conn.createQuery("CREATE TABLE counter (value INTEGER)").executeUpdate();
+		}
+		store = new SqliteGameStore(older);
+		store.close();
+		assertEquals(this.autoVacuum(older), 0);
+		SqliteGameStore.main(new String[] { older.toString() });
+		assertEquals(this.autoVacuum(older), 2);
+	}
+
+	private int autoVacuum(Path database) {
+		try (org.sql2o.Connection conn = new Sql2o("jdbc:sqlite:" + database, null, null).open()) {
+			return conn.createQuery("PRAGMA auto_vacuum").executeScalar(Integer.class);
+		}
+	}
+
+	@Test
+	public void testArchive() throws Exception {
+		SqliteGameStore store = new SqliteGameStore(this.directory.resolve(GameService.DATABASE_FILE));
+		Game game = new Game();
+		game.join("HOUND", "player1");
+		int finished = store.create(game);
+		int playing = store.create(game);
+		game.join("player2");
+		game.setVersion(1);
+		store.save(finished, game);
+		store.save(playing, game);
+		this.play(store, finished, game, 6);
+		game.setState("WIN_HARE_BY_STALLING");
+		game.setVersion(game.getVersion() + 1);
+		store.save(finished, game);
+		int[] positions = store.positions(finished);
+
+		// Only the finished game is archived, and it is still found
+		assertEquals(store.archiveFinishedGames(), 1);
+		assertEquals(store.archiveFinishedGames(), 0);
+		assertEquals(store.load(finished).toString(), game.toString());
+		assertArrayEquals(store.positions(finished), positions);
+		assertEquals(store.load(playing).getState(), "TURN_HOUND");
+		assertEquals(store.positions(playing).length, 1);
+		assertNull(store.load(playing + 1));
+		assertEquals(store.positions(playing + 1).length, 0);
+
+		// Ids of archived games are not given out again
+		assertEquals(store.create(new Game()), playing + 1);
+		store.close();
+	}
+
+	@Test
+	public void testCompressPositions() {
+		int[] positions = { 0, 1, Board.move(new Board().getPosition(), 1, 4), (10 << 11) | 2047 };
+		assertArrayEquals(GameArchive.decompress(GameArchive.compress(positions), positions.length), positions);
+		assertEquals(GameArchive.decompress(GameArchive.compress(new int[0]), 0).length, 0);
+	}
+
+	@Test(expected = GameStore.StoreException.class)
+	public void testUnknownStore() {
+		GameStore.open("tape", this.directory);
+	}
+}
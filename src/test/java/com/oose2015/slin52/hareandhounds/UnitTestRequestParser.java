@@ -0,0 +1,104 @@
+package com.oose2015.slin52.hareandhounds;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class UnitTestRequestParser {
+
+	@Test
+	public void testTurnRequest() throws Exception {
+		Game game = new Game();
+		game.join("HOUND", "player1");
+		game.join("player2");
+		TurnRequest turn = TurnRequest.parse(bytesOf("{\"playerId\":\"player2\",\"fromX\":4,\"fromY\":1,"
+				+ "\"toX\":3,\"toY\":\"2\"}"), game);
+		// The id of the player in the game is used, not a copy
+		assertSame(turn.playerId, game.getPlayerHare());
+		assertEquals(turn.fromX, 4);
+		assertEquals(turn.fromY, 1);
+		assertEquals(turn.toX, 3);
+		assertEquals(turn.toY, 2);
+
+		// Any order, white space, other fields and ids of other players
+		turn = TurnRequest.parse(bytesOf(" {\n\t\"toY\" : -1, \"extra\": {\"a\": [1, \"}\"]}, \"fromX\": 0,"
+				+ " \"toX\": 10, \"fromY\": 7, \"ok\": true, \"playerId\": \"pl\\u00e4yer\\\"3\" }  "), game);
+		assertEquals(turn.playerId, "pl\u00e4yer\"3");
+		assertEquals(turn.toY, -1);
+		assertEquals(turn.toX, 10);
+		assertEquals(turn.fromY, 7);
+	}
+
+	@Test
+	public void testMalformed() {
+		Game game = new Game();
+		String[] bodies = { "", "{", "[]", "null", "{\"playerId\": \"player1\"}",
+				"{\"playerId\": \"player1\", \"fromX\": 0, \"fromY\": 1, \"toX\": 1}",
+				"{\"playerId\": 1, \"fromX\": 0, \"fromY\": 1, \"toX\": 1, \"toY\": 1}",
+				"{\"playerId\": \"player1\", \"fromX\": 0.5, \"fromY\": 1, \"toX\": 1, \"toY\": 1}",
+				"{\"playerId\": \"player1\", \"fromX\": 9999999999, \"fromY\": 1, \"toX\": 1, \"toY\": 1}",
+				"{\"playerId\": \"player1\", \"fromX\": 0, \"fromY\": 1, \"toX\": 1, \"toY\": 1} x",
+				"{\"playerId\": \"player1\" \"fromX\": 0, \"fromY\": 1, \"toX\": 1, \"toY\": 1}",
+				"{\"playerId\": \"player1\", \"fromX\": 0, \"fromY\": 1, \"toX\": 1, \"toY\": 1, \"x\": [1, 2}",
+				"{\"playerId\": \"player1\\" };
+		for (String body : bodies) {
+			try {
+				TurnRequest.parse(bytesOf(body), game);
+				fail("Parsed " + body);
+			} catch (RequestParser.MalformedRequestException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testKnownStrings() throws Exception {
+		RequestParser parser = new RequestParser(bytesOf("{\"pieceType\": \"HARE\", \"opponent\": \"human\"}"));
+		assertTrue(parser.nextField());
+		assertTrue(parser.fieldIs("pieceType"));
+		assertFalse(parser.fieldIs("pieceTyp"));
+		String hare = "HARE";
+		assertSame(parser.stringValue("HOUND", hare), hare);
+		assertTrue(parser.nextField());
+		assertEquals(parser.stringValue("COMPUTER"), "human");
+		assertFalse(parser.nextField());
+
+		parser = new RequestParser(bytesOf("{ }"));
+		assertFalse(parser.nextField());
+	}
+
+	@Test
+	public void testArrays() throws Exception {
+		RequestParser parser = new RequestParser(bytesOf("{\"pieceTypes\": [\"HARE\", \"HOUND\" ], \"n\": []}"));
+		assertTrue(parser.nextField());
+		assertTrue(parser.nextElement());
+		assertEquals(parser.stringValue("HARE"), "HARE");
+		assertTrue(parser.nextElement());
+		assertEquals(parser.stringValue("HARE"), "HOUND");
+		assertFalse(parser.nextElement());
+		assertTrue(parser.nextField());
+		assertFalse(parser.nextElement());
+		assertFalse(parser.nextField());
+
+		String[] bodies = { "{\"a\": \"HARE\"}", "{\"a\": [\"HARE\" \"HOUND\"]}", "{\"a\": [\"HARE\","
+				+ "}" };
+		for (String body : bodies) {
+			parser = new RequestParser(bytesOf(body));
+			try {
+				assertTrue(parser.nextField());
+				while (parser.nextElement()) {
+					parser.stringValue();
+				}
+				fail("Parsed " + body);
+			} catch (RequestParser.MalformedRequestException ex) {
+				// expected
+			}
+		}
+	}
+
+	private static byte[] bytesOf(String body) {
+		return body.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,91 @@
+package com.oose2015.slin52.hareandhounds;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UnitTestSimulation {
+
+	private static Path file;
+	private static Tablebase tablebase;
+	private static ForkJoinPool pool;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		file = Files.createTempFile("hareandhounds", ".tb");
+		Files.delete(file);
+		tablebase = Tablebase.open(file);
+		pool = new ForkJoinPool(4);
+	}
+
+	@AfterClass
+	public static void clean() throws Exception {
+		pool.shutdown();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testLegalMoves() {
+		// The hounds have seven legal moves at the start, the hare three
+		int[] moves = new int[32];
+		int position = new Board().getPosition();
+		assertEquals(Simulation.legalMoves(position, false, moves), 7);
+		assertEquals(Simulation.legalMoves(position, true, moves), 3);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(ComputerPlayer.fromOf(moves[i]), Board.hareOf(position));
+		}
+	}
+
+	@Test
+	public void testRandomGames() {
+		Simulation.Player random = Simulation.playerOf(Simulation.RANDOM, null);
+		Simulation.Statistics statistics = Simulation.simulate(pool, 5000, random, random, 42);
+		assertEquals(statistics.getGames(), 5000);
+		long games = 0;
+		for (int outcome = 0; outcome < Simulation.OUTCOMES.length; outcome++) {
+			games += statistics.count(outcome);
+		}
+		assertEquals(games, 5000);
+		// Random hounds rarely trap the hare, and random play repeats often
+		assertTrue(statistics.count(Simulation.WIN_HARE_BY_ESCAPE) > statistics.count(Simulation.WIN_HOUND));
+		assertTrue(statistics.count(Simulation.WIN_HARE_BY_STALLING) > 0);
+		assertTrue(statistics.percentile(0) > 0);
+		assertTrue(statistics.percentile(0.5) <= statistics.percentile(1));
+
+		// The same seed plays the same games
+		Simulation.Statistics again = Simulation.simulate(pool, 5000, random, random, 42);
+		for (int outcome = 0; outcome < Simulation.OUTCOMES.length; outcome++) {
+			assertEquals(again.count(outcome), statistics.count(outcome));
+		}
+		assertEquals(again.getPlies(), statistics.getPlies());
+	}
+
+	@Test
+	public void testPerfectGames() {
+		// The hounds win the start position; perfect hounds win as fast as a
+		// perfect hare allows, so every game takes the same number of moves
+		Simulation.Player perfect = Simulation.playerOf(Simulation.TABLEBASE, tablebase);
+		Simulation.Statistics statistics = Simulation.simulate(pool, 2000, perfect, perfect, 7);
+		assertEquals(statistics.count(Simulation.WIN_HOUND), 2000);
+		int distance = Tablebase.distanceOf(tablebase.probe(new Board().getPosition(), false));
+		assertEquals(statistics.percentile(0), distance);
+		assertEquals(statistics.percentile(1), distance);
+
+		// Perfect hounds beat any hare
+		Simulation.Player greedy = Simulation.playerOf(Simulation.GREEDY, null);
+		assertEquals(Simulation.simulate(pool, 2000, perfect, greedy, 7).count(Simulation.WIN_HOUND), 2000);
+		Simulation.Player random = Simulation.playerOf(Simulation.RANDOM, null);
+		assertEquals(Simulation.simulate(pool, 2000, perfect, random, 7).count(Simulation.WIN_HOUND), 2000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPlayer() {
+		Simulation.playerOf("oracle", null);
+	}
+}
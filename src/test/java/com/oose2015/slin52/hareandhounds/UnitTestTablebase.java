@@ -0,0 +1,113 @@
+package com.oose2015.slin52.hareandhounds;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UnitTestTablebase {
+
+	private static Path file;
+	private static Tablebase tablebase;
+
+	@BeforeClass
+	public static void solve() throws Exception {
+		file = Files.createTempFile("hareandhounds", ".tb");
+		Files.delete(file);
+		tablebase = Tablebase.open(file);
+	}
+
+	@AfterClass
+	public static void clean() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testTerminalPositions() {
+		// The hare has escaped behind all hounds
+		Board board = new Board();
+		board.setStatus("HOUND_NULL_NULL_NULL_HARE_NULL_NULL_NULL_HOUND_HOUND_NULL");
+		int entry = tablebase.probe(board.getPosition(), true);
+		assertEquals(Tablebase.valueOf(entry), Tablebase.WIN);
+		assertEquals(Tablebase.distanceOf(entry), 0);
+		entry = tablebase.probe(board.getPosition(), false);
+		assertEquals(Tablebase.valueOf(entry), Tablebase.LOSS);
+
+		// The hare is trapped at the right end
+		board.setStatus("NULL_NULL_HOUND_NULL_NULL_NULL_HOUND_HARE_NULL_NULL_HOUND");
+		entry = tablebase.probe(board.getPosition(), true);
+		assertEquals(Tablebase.valueOf(entry), Tablebase.LOSS);
+		assertEquals(Tablebase.distanceOf(entry), 0);
+
+		// No entry for something that is not a position
+		assertEquals(tablebase.probe(0, false), -1);
+	}
+
+	@Test
+	public void testConsistency() {
+		for (int position : Tablebase.POSITIONS) {
+			for (boolean hareToMove : new boolean[] { false, true }) {
+				int entry = tablebase.probe(position, hareToMove);
+				// Mirror images share the outcome
+				assertEquals(entry, tablebase.probe(Board.mirror(position), hareToMove));
+				if (Board.checkHareState(position) != null || !Board.hasMove(position, hareToMove)) {
+					assertEquals(Tablebase.distanceOf(entry), 0);
+					continue;
+				}
+				// The outcome follows from the best move
+				int bestWin = Integer.MAX_VALUE;
+				int worstLoss = -1;
+				boolean draw = false;
+				int pieces = hareToMove ? 1 << Board.hareOf(position) : Board.houndsOf(position);
+				for (int from = 0; from < Board.VERTEX_COUNT; from++) {
+					if ((pieces & (1 << from)) == 0) {
+						continue;
+					}
+					for (int to = 0; to < Board.VERTEX_COUNT; to++) {
+						if ((Board.destinations(position, from) & (1 << to)) == 0) {
+							continue;
+						}
+						int next = tablebase.probe(Board.move(position, from, to), !hareToMove);
+						if (Tablebase.valueOf(next) == Tablebase.LOSS) {
+							bestWin = Math.min(bestWin, Tablebase.distanceOf(next) + 1);
+						} else if (Tablebase.valueOf(next) == Tablebase.WIN) {
+							worstLoss = Math.max(worstLoss, Tablebase.distanceOf(next) + 1);
+						} else {
+							draw = true;
+						}
+					}
+				}
+				if (bestWin != Integer.MAX_VALUE) {
+					assertEquals(entry, Tablebase.entryOf(Tablebase.WIN, bestWin) & 0xFFFF);
+				} else if (draw) {
+					assertEquals(Tablebase.valueOf(entry), Tablebase.DRAW);
+				} else {
+					assertEquals(entry, Tablebase.entryOf(Tablebase.LOSS, worstLoss) & 0xFFFF);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMapExistingFile() throws Exception {
+		Tablebase mapped = Tablebase.map(file);
+		int start = new Board().getPosition();
+		assertEquals(mapped.probe(start, false), tablebase.probe(start, false));
+
+		// Other files are rejected
+		Path other = Files.createTempFile("hareandhounds", ".tb");
+		try {
+			Files.write(other, new byte[] { 1, 2, 3 });
+			Tablebase.map(other);
+			fail("Mapped a file that is not a tablebase");
+		} catch (java.io.IOException ex) {
+			// expected
+		} finally {
+			Files.delete(other);
+		}
+	}
+}